@@ -21,7 +21,13 @@ package com.transgressoft.itunesplaylistsutility;
 
 import com.transgressoft.itunesplaylistsutility.view.MainView;
 import de.felixroske.jfxsupport.AbstractJavaFxApplicationSupport;
+import javafx.application.Platform;
+import javafx.stage.*;
+import org.slf4j.*;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
 
 /**
  * @author Octavio Calleya
@@ -29,7 +35,26 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class ItunesPlaylistsUtilityApplication extends AbstractJavaFxApplicationSupport {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ItunesPlaylistsUtilityApplication.class);
+
     public static void main(String[] args) {
         launch(ItunesPlaylistsUtilityApplication.class, MainView.class, null, args);
     }
+
+    /**
+     * Reports the time since the JVM started until the context is ready and until the first
+     * window is shown. If {@code itunes.startup.exit-after-shown} is set, the application exits
+     * right after, which is used by the {@code cdsClassList} task to record the loaded classes.
+     */
+    @Override
+    public void beforeInitialView(Stage stage, ConfigurableApplicationContext applicationContext) {
+        LOG.info("Application context started in {} ms", ManagementFactory.getRuntimeMXBean().getUptime());
+        boolean exitAfterShown = applicationContext.getEnvironment()
+                .getProperty("itunes.startup.exit-after-shown", Boolean.class, false);
+        stage.addEventHandler(WindowEvent.WINDOW_SHOWN, event -> {
+            LOG.info("First window shown in {} ms", ManagementFactory.getRuntimeMXBean().getUptime());
+            if (exitAfterShown)
+                Platform.runLater(Platform::exit);
+        });
+    }
 }
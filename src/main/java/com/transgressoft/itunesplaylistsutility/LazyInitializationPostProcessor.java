@@ -0,0 +1,46 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility;
+
+import org.springframework.beans.factory.config.*;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Marks as lazy all the application beans, so that they are only created when they are
+ * first needed instead of when the context starts. Spring Boot 2.0 has no
+ * {@code spring.main.lazy-initialization} property, so it is enabled with
+ * {@code itunes.startup.lazy-initialization}, set by the {@code fast-startup} profile.
+ *
+ * @author Octavio Calleya
+ */
+@Component
+@ConditionalOnProperty("itunes.startup.lazy-initialization")
+public class LazyInitializationPostProcessor implements BeanFactoryPostProcessor {
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+            if (beanDefinition.getRole() == BeanDefinition.ROLE_APPLICATION)
+                beanDefinition.setLazyInit(true);
+        }
+    }
+}
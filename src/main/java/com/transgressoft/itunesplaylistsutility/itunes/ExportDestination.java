@@ -0,0 +1,79 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Place where an {@link ExportJob} copies the playlists. The root can be a path of any
+ * {@link java.nio.file.spi.FileSystemProvider}, such as a local or mounted network
+ * directory, a directory inside a zip file, or an in-memory file system.
+ *
+ * <p>The destination declares what it supports, and the job adapts the way it copies
+ * the files to it.</p>
+ *
+ * @author Octavio Calleya
+ */
+public interface ExportDestination {
+
+    enum Capability {
+
+        /**
+         * Files can be hard linked to the source files instead of copied,
+         * when the source is on the same file store
+         */
+        LINKS,
+
+        /**
+         * Files can be moved atomically inside the destination, so they are written
+         * with a temporary name and appear with their name only once complete
+         */
+        ATOMIC_MOVE
+    }
+
+    /**
+     * @return The directory where the playlist directories are created
+     */
+    Path getRoot();
+
+    Set<Capability> getCapabilities();
+
+    /**
+     * @return The number of files that is convenient to copy at the same time to the destination
+     */
+    int getPreferredConcurrency();
+
+    default boolean supports(Capability capability) {
+        return getCapabilities().contains(capability);
+    }
+
+    /**
+     * Creates a destination whose capabilities are found out from its file system
+     *
+     * @param root         The directory where to copy the playlists
+     * @param linksAllowed Whether the files can be linked instead of copied, if supported
+     *
+     * @return The destination
+     */
+    static ExportDestination of(Path root, boolean linksAllowed) {
+        return new FileSystemDestination(root, linksAllowed);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.ItunesPlaylist;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Event of an {@link ExportJob}. Each type of event fills only the fields that apply to it.
+ *
+ * @author Octavio Calleya
+ */
+public class ExportEvent {
+
+    public enum Type {
+
+        /**
+         * The job computed the number of files to copy, before copying any of them
+         */
+        PLANNED,
+
+        /**
+         * The copy of a playlist started
+         */
+        STARTED,
+
+        /**
+         * A file was copied to a destination
+         */
+        FILE_COPIED,
+
+        /**
+         * A file could not be copied to a destination. If the source is {@code null},
+         * the directory of the playlist could not be created.
+         */
+        FILE_FAILED,
+
+        /**
+         * A source file was processed for all the destinations
+         */
+        PROGRESS,
+
+        /**
+         * The job finished, or was cancelled. It is always the last event.
+         */
+        COMPLETED
+    }
+
+    private final long timestamp;
+    private final Type type;
+    private final ItunesPlaylist playlist;
+    private final Path destination;
+    private final Path source;
+    private final Path target;
+    private final Throwable failure;
+    private final int processedFiles;
+    private final int totalFiles;
+    private final int copiedFiles;
+    private final int failedFiles;
+    private final boolean cancelled;
+    private final List<DestinationCounts> destinationCounts;
+
+    private ExportEvent(Type type, ItunesPlaylist playlist, Path destination, Path source, Path target, Throwable failure,
+                        int processedFiles, int totalFiles, int copiedFiles, int failedFiles, boolean cancelled,
+                        List<DestinationCounts> destinationCounts) {
+        this.timestamp = System.currentTimeMillis();
+        this.type = type;
+        this.playlist = playlist;
+        this.destination = destination;
+        this.source = source;
+        this.target = target;
+        this.failure = failure;
+        this.processedFiles = processedFiles;
+        this.totalFiles = totalFiles;
+        this.copiedFiles = copiedFiles;
+        this.failedFiles = failedFiles;
+        this.cancelled = cancelled;
+        this.destinationCounts = destinationCounts;
+    }
+
+    static ExportEvent planned(int totalFiles) {
+        return new ExportEvent(Type.PLANNED, null, null, null, null, null, 0, totalFiles, 0, 0, false, Collections.emptyList());
+    }
+
+    static ExportEvent started(ItunesPlaylist playlist) {
+        return new ExportEvent(Type.STARTED, playlist, null, null, null, null, 0, 0, 0, 0, false, Collections.emptyList());
+    }
+
+    static ExportEvent fileCopied(Path destination, Path source, Path target) {
+        return new ExportEvent(Type.FILE_COPIED, null, destination, source, target, null, 0, 0, 0, 0, false,
+                               Collections.emptyList());
+    }
+
+    static ExportEvent fileFailed(Path destination, Path source, Path target, Throwable failure) {
+        return new ExportEvent(Type.FILE_FAILED, null, destination, source, target, failure, 0, 0, 0, 0, false,
+                               Collections.emptyList());
+    }
+
+    static ExportEvent progress(int processedFiles, int totalFiles) {
+        return new ExportEvent(Type.PROGRESS, null, null, null, null, null, processedFiles, totalFiles, 0, 0, false,
+                               Collections.emptyList());
+    }
+
+    static ExportEvent completed(int processedFiles, int totalFiles, List<DestinationCounts> destinationCounts, boolean cancelled) {
+        int copiedFiles = destinationCounts.stream().mapToInt(DestinationCounts::getCopiedFiles).sum();
+        int failedFiles = destinationCounts.stream().mapToInt(DestinationCounts::getFailedFiles).sum();
+        return new ExportEvent(Type.COMPLETED, null, null, null, null, null, processedFiles, totalFiles, copiedFiles, failedFiles,
+                               cancelled, Collections.unmodifiableList(new ArrayList<>(destinationCounts)));
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public ItunesPlaylist getPlaylist() {
+        return playlist;
+    }
+
+    /**
+     * @return The root of the destination of a {@link Type#FILE_COPIED} or {@link Type#FILE_FAILED} event
+     */
+    public Path getDestination() {
+        return destination;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public int getProcessedFiles() {
+        return processedFiles;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * @return The number of files copied to all the destinations, on a {@link Type#COMPLETED} event
+     */
+    public int getCopiedFiles() {
+        return copiedFiles;
+    }
+
+    /**
+     * @return The number of files that failed on all the destinations, on a {@link Type#COMPLETED} event
+     */
+    public int getFailedFiles() {
+        return failedFiles;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The counts of each destination, in the order they were given to the job,
+     *         on a {@link Type#COMPLETED} event
+     */
+    public List<DestinationCounts> getDestinationCounts() {
+        return destinationCounts;
+    }
+
+    /**
+     * @return The fraction of the files processed, between 0 and 1
+     */
+    public double getProgress() {
+        return totalFiles == 0 ? 1.0 : (1.0 * processedFiles) / totalFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportEvent{" + type + ", destination=" + destination + ", source=" + source + ", target=" + target +
+                ", processed=" + processedFiles + "/" + totalFiles + "}";
+    }
+
+    /**
+     * Files copied to a destination, and failed on it
+     */
+    public static class DestinationCounts {
+
+        private final Path destination;
+        private final int copiedFiles;
+        private final int failedFiles;
+
+        DestinationCounts(Path destination, int copiedFiles, int failedFiles) {
+            this.destination = destination;
+            this.copiedFiles = copiedFiles;
+            this.failedFiles = failedFiles;
+        }
+
+        /**
+         * @return The root of the destination
+         */
+        public Path getDestination() {
+            return destination;
+        }
+
+        public int getCopiedFiles() {
+            return copiedFiles;
+        }
+
+        public int getFailedFiles() {
+            return failedFiles;
+        }
+
+        @Override
+        public String toString() {
+            return destination + ": " + copiedFiles + " copied, " + failedFiles + " failed";
+        }
+    }
+}
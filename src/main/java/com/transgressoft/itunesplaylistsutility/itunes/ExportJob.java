@@ -0,0 +1,364 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.transgressoft.itunesplaylistsutility.itunes.ExportDestination.Capability;
+import com.transgressoft.itunesplaylistsutility.util.*;
+import com.transgressoft.itunesplaylistsutility.util.Flow;
+import com.worldsworstsoftware.itunes.ItunesPlaylist;
+import org.slf4j.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.Collectors;
+
+/**
+ * Handle of the copy of a selection of playlists to one or several destinations.
+ *
+ * <p>The progress of the copy is published as {@link ExportEvent}s, which any number of
+ * subscribers can receive at their own pace without slowing the copy. The events of a
+ * subscriber that falls behind are buffered up to a limit, and beyond it the
+ * {@link ExportEvent.Type#PROGRESS} and {@link ExportEvent.Type#FILE_COPIED} events are
+ * dropped for that subscriber. The rest of the events are kept in the buffer up to twice
+ * that limit, so a destination failing on every file cannot fill the memory of a slow
+ * subscriber, and are dropped too beyond it. The {@link ExportEvent.Type#COMPLETED} event
+ * is always delivered, with the counts of the copied and failed files of each destination.</p>
+ *
+ * <p>The way of copying adapts to the {@link ExportDestination}s: as many files are copied
+ * at the same time as the least concurrent destination prefers, and each file is linked
+ * or moved into place when the destination supports it.</p>
+ *
+ * <p>The job does nothing until it is started, so the subscribers can be attached before.</p>
+ *
+ * @author Octavio Calleya
+ */
+public class ExportJob {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExportJob.class);
+    private static final int EVENTS_BUFFER_CAPACITY = 4096;
+
+    private final PlaylistCopyPlan copyPlan;
+    private final List<DestinationProgress> destinations;
+    private final AsyncCopyLogger copyLogger;
+    private final Object libraryLock;
+    private final Executor executor;
+    private final FileCopyExecutorMode fileCopyExecutorMode;
+    private final int maxFilesInFlight;
+    private final BufferedPublisher<ExportEvent> events;
+    private final CompletableFuture<ExportEvent> completion = new CompletableFuture<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean cancelled;
+
+    /**
+     * @param copyPlan       The files to copy
+     * @param destinations   The destinations where to copy the playlists
+     * @param copyLogger     The logger of the per-file events
+     * @param libraryLock    The lock that keeps the library from changing during the copy
+     * @param executor             The executor where the copy runs
+     * @param eventsExecutor       The executor where the events are delivered to the subscribers
+     * @param fileCopyExecutorMode How the files copied at the same time are run
+     * @param maxFilesInFlight     The maximum files copied at the same time with virtual threads,
+     *                             when all the destinations prefer more than one
+     */
+    ExportJob(PlaylistCopyPlan copyPlan, List<ExportDestination> destinations, AsyncCopyLogger copyLogger, Object libraryLock,
+              Executor executor, Executor eventsExecutor, FileCopyExecutorMode fileCopyExecutorMode, int maxFilesInFlight) {
+        this.copyPlan = copyPlan;
+        this.destinations = destinations.stream().map(DestinationProgress::new).collect(Collectors.toList());
+        this.copyLogger = copyLogger;
+        this.libraryLock = libraryLock;
+        this.executor = executor;
+        this.fileCopyExecutorMode = fileCopyExecutorMode;
+        this.maxFilesInFlight = maxFilesInFlight;
+        this.events = new BufferedPublisher<>(eventsExecutor, EVENTS_BUFFER_CAPACITY,
+                                              event -> event.getType() == ExportEvent.Type.PROGRESS ||
+                                                      event.getType() == ExportEvent.Type.FILE_COPIED);
+    }
+
+    public Flow.Publisher<ExportEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Starts the copy, if it was not started yet
+     *
+     * @return The completion of the job, with its {@link ExportEvent.Type#COMPLETED} event
+     */
+    public CompletableFuture<ExportEvent> start() {
+        if (started.compareAndSet(false, true))
+            executor.execute(this::run);
+        return completion;
+    }
+
+    /**
+     * Stops the copy after the file being copied, leaving the files already copied
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public CompletableFuture<ExportEvent> getCompletion() {
+        return completion;
+    }
+
+    private void run() {
+        try {
+            ExportEvent completedEvent;
+            synchronized (libraryLock) {
+                completedEvent = copy();
+            }
+            events.close(completedEvent);
+            completion.complete(completedEvent);
+        }
+        catch (RuntimeException exception) {
+            LOG.error("Error exporting the playlists", exception);
+            events.closeExceptionally(exception);
+            completion.completeExceptionally(exception);
+        }
+    }
+
+    private ExportEvent copy() {
+        Map<ItunesPlaylist, String> directoryNames = copyPlan.directoryNames();
+        int totalTracks = copyPlan.countTracks();
+        events.submit(ExportEvent.planned(totalTracks));
+
+        int filesInFlight = filesInFlight();
+        Semaphore filePermits = new Semaphore(filesInFlight);
+        ExecutorService fileCopyExecutor = filesInFlight > 1 ? fileCopyExecutorMode.newExecutor(filesInFlight) : null;
+        AtomicInteger processedTracks = new AtomicInteger();
+        ItunesPlaylist currentPlaylist = null;
+        try (FanOutCopier fanOutCopier = new FanOutCopier(destinations.size())) {
+            for (PlaylistCopyPlan.CopyTask copyTask : copyPlan) {
+                if (cancelled)
+                    break;
+                if (copyTask.getPlaylist() != currentPlaylist) {
+                    currentPlaylist = copyTask.getPlaylist();
+                    events.submit(ExportEvent.started(currentPlaylist));
+                    for (DestinationProgress destination : destinations)
+                        createPlaylistDirectory(destination, directoryNames.get(currentPlaylist));
+                }
+
+                Path source = copyTask.getSourcePath();
+                Map<Path, DestinationProgress> destinationsByTarget = reserveTargets(source);
+                filePermits.acquireUninterruptibly();
+                Runnable fileCopy = () -> {
+                    try {
+                        copyItunesTrack(fanOutCopier, source, destinationsByTarget);
+                        events.submit(ExportEvent.progress(processedTracks.incrementAndGet(), totalTracks));
+                    }
+                    finally {
+                        filePermits.release();
+                    }
+                };
+                if (fileCopyExecutor == null)
+                    fileCopy.run();
+                else
+                    fileCopyExecutor.execute(fileCopy);
+            }
+            filePermits.acquireUninterruptibly(filesInFlight);
+        }
+        finally {
+            if (fileCopyExecutor != null)
+                fileCopyExecutor.shutdown();
+        }
+
+        List<ExportEvent.DestinationCounts> destinationCounts = new ArrayList<>(destinations.size());
+        for (DestinationProgress destination : destinations) {
+            LOG.info("Copied {} files to {}, {} failed", destination.copiedFiles, destination.root, destination.failedFiles);
+            destinationCounts.add(new ExportEvent.DestinationCounts(destination.root, destination.copiedFiles.get(),
+                                                                    destination.failedFiles.get()));
+        }
+        return ExportEvent.completed(processedTracks.get(), totalTracks, destinationCounts, cancelled);
+    }
+
+    /**
+     * The number of files copied at the same time is the lowest preferred by the destinations.
+     * Virtual threads are cheap while waiting for the destination, so with them the destinations
+     * that accept concurrent copies are given up to the maximum files in flight instead.
+     */
+    private int filesInFlight() {
+        int preferredConcurrency = destinations.stream()
+                .mapToInt(destination -> destination.destination.getPreferredConcurrency())
+                .min().orElse(1);
+        if (preferredConcurrency > 1 && fileCopyExecutorMode == FileCopyExecutorMode.VIRTUAL)
+            return Math.max(1, maxFilesInFlight);
+        return Math.max(1, preferredConcurrency);
+    }
+
+    private void createPlaylistDirectory(DestinationProgress destination, String directoryName) {
+        destination.playlistPath = destination.root.resolve(directoryName);
+        try {
+            Files.createDirectory(destination.playlistPath);
+        }
+        catch (IOException exception) {
+            copyLogger.directoryFailed(destination.playlistPath);
+            events.submit(ExportEvent.fileFailed(destination.root, null, destination.playlistPath, exception));
+            destination.playlistPath = null;
+        }
+    }
+
+    /**
+     * Chooses the name of the file in each destination, and reserves it until the file
+     * is copied, so that files copied at the same time never get the same name.
+     */
+    private Map<Path, DestinationProgress> reserveTargets(Path source) {
+        String fileName = source.getFileName().toString();
+        Map<Path, DestinationProgress> destinationsByTarget = new LinkedHashMap<>();
+        for (DestinationProgress destination : destinations) {
+            if (destination.playlistPath != null) {
+                String ensuredFileName = ensuredFileNameOnPath(destination, fileName);
+                Path target = destination.playlistPath.resolve(ensuredFileName);
+                destination.reservedTargets.add(target);
+                destinationsByTarget.put(target, destination);
+            }
+            else
+                destination.failedFiles.incrementAndGet();
+        }
+        return destinationsByTarget;
+    }
+
+    /**
+     * Copies a file to its targets. Destinations that support links get a link to the source
+     * when it is on the same file store, and those that support atomic moves get the file
+     * written with a temporary name and then moved to its own.
+     */
+    private void copyItunesTrack(FanOutCopier fanOutCopier, Path source, Map<Path, DestinationProgress> destinationsByTarget) {
+        Map<Path, Path> targetsByWrittenPath = new LinkedHashMap<>();
+        destinationsByTarget.forEach((target, destination) -> {
+            if (destination.destination.supports(Capability.LINKS) && link(source, target))
+                fileCopied(source, target, destination);
+            else if (destination.destination.supports(Capability.ATOMIC_MOVE))
+                targetsByWrittenPath.put(target.resolveSibling("." + target.getFileName() + ".part"), target);
+            else
+                targetsByWrittenPath.put(target, target);
+        });
+
+        try {
+            if (! targetsByWrittenPath.isEmpty()) {
+                Map<Path, IOException> failures = fanOutCopier.copy(source, new ArrayList<>(targetsByWrittenPath.keySet()));
+                targetsByWrittenPath.forEach((writtenPath, target) -> {
+                    IOException failure = failures.get(writtenPath);
+                    if (failure == null && ! writtenPath.equals(target))
+                        failure = moveIntoPlace(writtenPath, target);
+                    if (failure == null)
+                        fileCopied(source, target, destinationsByTarget.get(target));
+                    else
+                        fileFailed(source, target, destinationsByTarget.get(target), failure);
+                });
+            }
+        }
+        catch (IOException exception) {
+            targetsByWrittenPath.values().forEach(target -> fileFailed(source, target, destinationsByTarget.get(target), exception));
+        }
+        finally {
+            destinationsByTarget.forEach((target, destination) -> destination.reservedTargets.remove(target));
+        }
+    }
+
+    private boolean link(Path source, Path target) {
+        if (source.getFileSystem() != target.getFileSystem())
+            return false;
+        try {
+            Files.createLink(target, source);
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException exception) {
+            // Most likely the source is on another file store, so the file is copied instead
+            return false;
+        }
+    }
+
+    private IOException moveIntoPlace(Path writtenPath, Path target) {
+        try {
+            Files.move(writtenPath, target, StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        }
+        catch (IOException exception) {
+            try {
+                Files.deleteIfExists(writtenPath);
+            }
+            catch (IOException deleteException) {
+                exception.addSuppressed(deleteException);
+            }
+            return exception;
+        }
+    }
+
+    private void fileCopied(Path source, Path target, DestinationProgress destination) {
+        destination.copiedFiles.incrementAndGet();
+        copyLogger.fileCopied(source, target);
+        events.submit(ExportEvent.fileCopied(destination.root, source, target));
+    }
+
+    private void fileFailed(Path source, Path target, DestinationProgress destination, IOException failure) {
+        destination.failedFiles.incrementAndGet();
+        copyLogger.fileFailed(source, target, failure);
+        events.submit(ExportEvent.fileFailed(destination.root, source, target, failure));
+    }
+
+    /**
+     * Ensures that the file name given is unique in the playlist directory of the destination,
+     * appending (1), (2)... (n+1) to the file name in case it already exists or is reserved
+     *
+     * @param destination The destination where to check if there is a file with the name equals <tt>fileName</tt>
+     * @param fileName    The string of the file name
+     *
+     * @return The modified string
+     */
+    private String ensuredFileNameOnPath(DestinationProgress destination, String fileName) {
+        String newName = fileName;
+        if (destination.isTaken(fileName)) {
+            int pos = fileName.lastIndexOf('.');
+            newName = fileName.substring(0, pos) + "(1)." + fileName.substring(pos + 1);
+        }
+        while (destination.isTaken(newName)) {
+            int posL = newName.lastIndexOf('(');
+            int posR = newName.lastIndexOf(')');
+            int num = Integer.parseInt(newName.substring(posL + 1, posR));
+            newName = newName.substring(0, posL + 1) + ++ num + newName.substring(posR);
+        }
+        return newName;
+    }
+
+    /**
+     * Progress of the copy to one of the destinations
+     */
+    private static class DestinationProgress {
+
+        private final ExportDestination destination;
+        private final Path root;
+        private final Set<Path> reservedTargets = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger copiedFiles = new AtomicInteger();
+        private final AtomicInteger failedFiles = new AtomicInteger();
+        private Path playlistPath;
+
+        private DestinationProgress(ExportDestination destination) {
+            this.destination = destination;
+            this.root = destination.getRoot();
+        }
+
+        private boolean isTaken(String fileName) {
+            Path target = playlistPath.resolve(fileName);
+            return reservedTargets.contains(target) || Files.exists(target, LinkOption.NOFOLLOW_LINKS);
+        }
+    }
+}
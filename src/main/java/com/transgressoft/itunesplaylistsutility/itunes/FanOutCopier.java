@@ -0,0 +1,258 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Copies a source file to several target files reading the source only once.
+ *
+ * <p>The source is read in chunks into a small pool of direct buffers, and each chunk
+ * is written to all the targets in parallel, one writer thread per destination. The
+ * reader waits for a free buffer when the slowest target falls behind, so the memory
+ * used is bounded by the pool. A write failure on one target discards only that target
+ * file; the rest of the targets are completed.</p>
+ *
+ * <p>The targets are opened through the provider of their own file system, so they can be
+ * on different ones. Several files can be copied at the same time from different threads,
+ * sharing the pool of buffers and the writer threads.</p>
+ *
+ * @author Octavio Calleya
+ */
+class FanOutCopier implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int POOLED_BUFFERS = 4;
+
+    private final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+    private final ExecutorService writersExecutor;
+
+    FanOutCopier(int destinations) {
+        if (destinations > 1) {
+            for (int i = 0; i < POOLED_BUFFERS; i++)
+                bufferPool.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+            writersExecutor = Executors.newFixedThreadPool(destinations, writerThreadFactory());
+        }
+        else
+            writersExecutor = null;
+    }
+
+    private static ThreadFactory writerThreadFactory() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "fan-out-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Copies the source file to each one of the targets.
+     *
+     * @param source  The path of the file to copy
+     * @param targets The paths of the files to create
+     *
+     * @return The failures of the targets that could not be written, by target path
+     *
+     * @throws IOException If the source file could not be read when copying to several targets,
+     *                     in which case no target file is left
+     */
+    Map<Path, IOException> copy(Path source, List<Path> targets) throws IOException {
+        Map<Path, IOException> failures = new HashMap<>();
+        if (targets.size() == 1) {
+            try {
+                Files.copy(source, targets.get(0), COPY_ATTRIBUTES);
+            }
+            catch (IOException exception) {
+                failures.put(targets.get(0), exception);
+            }
+            return failures;
+        }
+
+        FileTime lastModifiedTime = Files.getLastModifiedTime(source);
+        List<TargetWriter> targetWriters = new ArrayList<>(targets.size());
+        for (Path target : targets) {
+            try {
+                targetWriters.add(new TargetWriter(target, Files.newByteChannel(target, CREATE_NEW, WRITE)));
+            }
+            catch (IOException exception) {
+                failures.put(target, exception);
+            }
+        }
+
+        IOException sourceFailure = null;
+        try (ReadableByteChannel sourceChannel = openSource(source)) {
+            while (! targetWriters.isEmpty() && ! allTargetsFailed(targetWriters)) {
+                ByteBuffer buffer = takeBuffer();
+                if (! readChunk(sourceChannel, buffer))
+                    break;
+                writeChunk(buffer, targetWriters);
+            }
+        }
+        catch (IOException exception) {
+            sourceFailure = exception;
+        }
+
+        for (TargetWriter targetWriter : targetWriters) {
+            IOException failure = targetWriter.finish(sourceFailure == null ? lastModifiedTime : null);
+            if (failure != null)
+                failures.put(targetWriter.target, failure);
+        }
+        if (sourceFailure != null)
+            throw sourceFailure;
+        return failures;
+    }
+
+    /**
+     * Opens the source file to be read in chunks, overridable to read from other channels
+     */
+    ReadableByteChannel openSource(Path source) throws IOException {
+        return FileChannel.open(source, READ);
+    }
+
+    /**
+     * Reads the next chunk of the source into the buffer, giving the buffer back
+     * to the pool if there is nothing left to read or the read fails.
+     *
+     * @return Whether a chunk was read
+     */
+    private boolean readChunk(ReadableByteChannel sourceChannel, ByteBuffer buffer) throws IOException {
+        boolean read = false;
+        try {
+            buffer.clear();
+            read = sourceChannel.read(buffer) >= 0;
+            buffer.flip();
+        }
+        finally {
+            if (! read)
+                bufferPool.add(buffer);
+        }
+        return read;
+    }
+
+    private boolean allTargetsFailed(List<TargetWriter> targetWriters) {
+        return targetWriters.stream().allMatch(targetWriter -> targetWriter.pendingWrites.isCompletedExceptionally());
+    }
+
+    private ByteBuffer takeBuffer() throws InterruptedIOException {
+        try {
+            return bufferPool.take();
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+        }
+    }
+
+    /**
+     * Submits the writing of the chunk to all the targets, and gives the buffer
+     * back to the pool once every target has written it or failed.
+     */
+    private void writeChunk(ByteBuffer buffer, List<TargetWriter> targetWriters) {
+        CompletableFuture<?>[] chunkWrites = targetWriters.stream()
+                .map(targetWriter -> targetWriter.write(buffer.duplicate()))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(chunkWrites).whenComplete((result, exception) -> bufferPool.add(buffer));
+    }
+
+    @Override
+    public void close() {
+        if (writersExecutor != null)
+            writersExecutor.shutdown();
+    }
+
+    /**
+     * Sequence of writes of one target file. Every chunk is written after the previous
+     * one, and once a write fails the remaining ones are skipped.
+     */
+    private class TargetWriter {
+
+        private final Path target;
+        private final WritableByteChannel channel;
+        private CompletableFuture<Void> pendingWrites = CompletableFuture.completedFuture(null);
+
+        private TargetWriter(Path target, WritableByteChannel channel) {
+            this.target = target;
+            this.channel = channel;
+        }
+
+        private CompletableFuture<Void> write(ByteBuffer chunk) {
+            pendingWrites = pendingWrites.thenRunAsync(() -> {
+                try {
+                    while (chunk.hasRemaining())
+                        channel.write(chunk);
+                }
+                catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }, writersExecutor);
+            return pendingWrites;
+        }
+
+        /**
+         * Waits for the pending writes and closes the target file, deleting it
+         * if any of the writes failed or the copy did not complete.
+         *
+         * @param lastModifiedTime The modification time to set to the target, or {@code null} if the copy did not complete
+         *
+         * @return The failure writing the target, if any
+         */
+        private IOException finish(FileTime lastModifiedTime) {
+            IOException failure = null;
+            try {
+                pendingWrites.join();
+            }
+            catch (CompletionException exception) {
+                failure = exception.getCause() instanceof UncheckedIOException
+                        ? ((UncheckedIOException) exception.getCause()).getCause()
+                        : new IOException(exception.getCause());
+            }
+            try {
+                channel.close();
+                if (failure == null && lastModifiedTime != null)
+                    Files.setLastModifiedTime(target, lastModifiedTime);
+            }
+            catch (IOException exception) {
+                if (failure == null)
+                    failure = exception;
+            }
+            if (failure != null || lastModifiedTime == null) {
+                try {
+                    Files.deleteIfExists(target);
+                }
+                catch (IOException exception) {
+                    if (failure != null)
+                        failure.addSuppressed(exception);
+                }
+            }
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How the files of an {@link ExportJob} that are copied at the same time are run.
+ * In both modes the number of files in flight is limited by the job.
+ *
+ * <p>Configured with the {@code itunes.export.executor} property.</p>
+ *
+ * @author Octavio Calleya
+ */
+public enum FileCopyExecutorMode {
+
+    /**
+     * A pool of as many platform threads as files in flight
+     */
+    PLATFORM {
+        @Override
+        ExecutorService newExecutor(int filesInFlight) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newFixedThreadPool(filesInFlight, runnable -> {
+                Thread thread = new Thread(runnable, "export-file-copy-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    },
+
+    /**
+     * A new virtual thread for each file, which costs almost nothing while blocked on the
+     * file system, so slow destinations can have many files in flight. Virtual threads
+     * need Java 21 or later.
+     */
+    VIRTUAL {
+        @Override
+        boolean isSupported() {
+            return VIRTUAL_THREAD_EXECUTOR_FACTORY != null;
+        }
+
+        @Override
+        ExecutorService newExecutor(int filesInFlight) {
+            try {
+                return (ExecutorService) VIRTUAL_THREAD_EXECUTOR_FACTORY.invoke(null);
+            }
+            catch (ReflectiveOperationException exception) {
+                throw new IllegalStateException("Unable to create the virtual thread executor", exception);
+            }
+        }
+    };
+
+    /**
+     * Looked up by reflection, as the application is built for Java 8
+     */
+    private static final Method VIRTUAL_THREAD_EXECUTOR_FACTORY = virtualThreadExecutorFactory();
+
+    private static Method virtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether the mode can be used on the running Java version
+     */
+    boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @param filesInFlight The maximum number of files copied at the same time, greater than 1
+     *
+     * @return The executor where each file copy is submitted
+     */
+    abstract ExecutorService newExecutor(int filesInFlight);
+}
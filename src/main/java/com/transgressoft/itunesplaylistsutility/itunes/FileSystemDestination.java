@@ -0,0 +1,140 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import org.slf4j.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * {@link ExportDestination} that finds out its capabilities trying them on a probe file
+ * in its root directory, the first time they are asked for, so it works the same with
+ * the file system of any provider.
+ *
+ * <p>Destinations on network file systems prefer several files copied at the same time,
+ * to hide the latency of each one, while zip files can only be written one entry at
+ * a time and local disks perform better with sequential writes.</p>
+ *
+ * @author Octavio Calleya
+ */
+class FileSystemDestination implements ExportDestination {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSystemDestination.class);
+    private static final Set<String> NETWORK_FILE_STORE_TYPES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smbfs", "smb2", "smb3", "afpfs", "webdav", "davfs", "fuse.sshfs", "9p"));
+    private static final int NETWORK_CONCURRENCY = 8;
+
+    private final Path root;
+    private final boolean linksAllowed;
+    private Set<Capability> capabilities;
+    private int preferredConcurrency;
+
+    FileSystemDestination(Path root, boolean linksAllowed) {
+        this.root = root;
+        this.linksAllowed = linksAllowed;
+    }
+
+    @Override
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public synchronized Set<Capability> getCapabilities() {
+        if (capabilities == null)
+            probe();
+        return capabilities;
+    }
+
+    @Override
+    public synchronized int getPreferredConcurrency() {
+        if (capabilities == null)
+            probe();
+        return preferredConcurrency;
+    }
+
+    private void probe() {
+        capabilities = EnumSet.noneOf(Capability.class);
+        Path probeFile = root.resolve(".itunes-export-probe");
+        Path movedProbeFile = root.resolve(".itunes-export-probe-moved");
+        Path linkedProbeFile = root.resolve(".itunes-export-probe-linked");
+        try {
+            Files.deleteIfExists(probeFile);
+            Files.createFile(probeFile);
+            try {
+                Files.move(probeFile, movedProbeFile, ATOMIC_MOVE);
+                Files.move(movedProbeFile, probeFile, ATOMIC_MOVE);
+                capabilities.add(Capability.ATOMIC_MOVE);
+            }
+            catch (IOException | UnsupportedOperationException exception) {
+                LOG.debug("Atomic move not supported on {}: {}", root, exception.getMessage());
+            }
+            if (linksAllowed && root.getFileSystem() == FileSystems.getDefault()) {
+                try {
+                    Files.createLink(linkedProbeFile, probeFile);
+                    capabilities.add(Capability.LINKS);
+                }
+                catch (IOException | UnsupportedOperationException exception) {
+                    LOG.debug("Links not supported on {}: {}", root, exception.getMessage());
+                }
+            }
+        }
+        catch (IOException exception) {
+            LOG.debug("Unable to probe the capabilities of {}: {}", root, exception.getMessage());
+        }
+        finally {
+            deleteQuietly(probeFile);
+            deleteQuietly(movedProbeFile);
+            deleteQuietly(linkedProbeFile);
+        }
+        preferredConcurrency = probeConcurrency();
+        LOG.debug("Destination {} supports {}, preferred concurrency {}", root, capabilities, preferredConcurrency);
+    }
+
+    private int probeConcurrency() {
+        if (root.getFileSystem() != FileSystems.getDefault())
+            return "jar".equals(root.getFileSystem().provider().getScheme()) ? 1 : Runtime.getRuntime().availableProcessors();
+        try {
+            String fileStoreType = Files.getFileStore(root).type().toLowerCase(Locale.ROOT);
+            return NETWORK_FILE_STORE_TYPES.contains(fileStoreType) ? NETWORK_CONCURRENCY : 1;
+        }
+        catch (IOException exception) {
+            return 1;
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException exception) {
+            LOG.debug("Unable to delete {}", path);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return root.toUri().toString();
+    }
+}
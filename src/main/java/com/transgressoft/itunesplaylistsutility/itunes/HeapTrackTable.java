@@ -0,0 +1,107 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * {@link TrackTable} over the {@link ItunesTrack} objects of the library, as parsed.
+ * The paths of the tracks are cached once resolved.
+ *
+ * <p>The map of the tracks is never modified once the table is created; a re-import
+ * creates a new table, so the table can be read from any thread, such as the one of
+ * the user interface, while the library is being re-imported.</p>
+ *
+ * @author Octavio Calleya
+ */
+class HeapTrackTable implements TrackTable {
+
+    private final Map<?, ?> tracks;
+    private final TrackLocationResolver locationResolver;
+
+    /**
+     * @param tracks           The tracks by track id, owned by the table from now on
+     * @param locationResolver The resolver of the paths of the tracks
+     */
+    HeapTrackTable(Map<?, ?> tracks, TrackLocationResolver locationResolver) {
+        this.tracks = tracks;
+        this.locationResolver = locationResolver;
+    }
+
+    private ItunesTrack track(int trackId) {
+        return (ItunesTrack) tracks.get(trackId);
+    }
+
+    @Override
+    public boolean contains(int trackId) {
+        return tracks.containsKey(trackId);
+    }
+
+    @Override
+    public long getSize(int trackId) {
+        return track(trackId).getSize();
+    }
+
+    @Override
+    public String getTrackType(int trackId) {
+        return track(trackId).getTrackType();
+    }
+
+    @Override
+    public String getName(int trackId) {
+        return track(trackId).getName();
+    }
+
+    @Override
+    public Path getPath(int trackId) {
+        return locationResolver.resolve(track(trackId));
+    }
+
+    @Override
+    public void forEachTrackId(IntConsumer action) {
+        tracks.keySet().forEach(trackId -> action.accept((Integer) trackId));
+    }
+
+    @Override
+    public boolean isChanged(int trackId, ItunesTrack reloaded) {
+        ItunesTrack loaded = track(trackId);
+        return ! Objects.equals(loaded.getLocation(), reloaded.getLocation())
+                || loaded.getSize() != reloaded.getSize()
+                || loaded.getTotalTime() != reloaded.getTotalTime()
+                || ! Objects.equals(loaded.getTrackType(), reloaded.getTrackType())
+                || ! Objects.equals(loaded.getName(), reloaded.getName())
+                || ! Objects.equals(loaded.getDateModified(), reloaded.getDateModified());
+    }
+
+    /**
+     * Creates a new table that takes the tracks of the reloaded library, which is discarded
+     * after the re-import, leaving this table as it is for those still reading it
+     */
+    @Override
+    public TrackTable merge(ItunesLibraryDiff libraryDiff, ItunesLibrary reloaded) {
+        libraryDiff.getChangedTracks().forEach(locationResolver::forget);
+        libraryDiff.getRemovedTracks().forEach(locationResolver::forget);
+        return new HeapTrackTable(reloaded.getTracks(), locationResolver);
+    }
+}
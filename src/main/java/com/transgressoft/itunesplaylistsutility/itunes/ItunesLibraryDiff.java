@@ -0,0 +1,223 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Differences between the loaded {@link ItunesLibrary} and a new version of it parsed
+ * after the library xml file was rewritten by iTunes.
+ *
+ * <p>Tracks are matched by their id, and playlists by their persistent id. A playlist is
+ * changed if its name or its tracks changed, or if any of its tracks was modified.
+ * Only the listed playlists, as decided by the given predicate, are taken into account,
+ * so a playlist that stops being listed is reported as removed and vice versa.</p>
+ *
+ * @author Octavio Calleya
+ */
+public class ItunesLibraryDiff {
+
+    private final Set<Integer> addedTracks;
+    private final Set<Integer> removedTracks;
+    private final Set<Integer> changedTracks;
+    private final List<ItunesPlaylist> addedPlaylists;
+    private final List<ItunesPlaylist> removedPlaylists;
+    private final Map<ItunesPlaylist, ItunesPlaylist> changedPlaylists;
+    private final Map<ItunesPlaylist, ItunesPlaylist> unchangedPlaylists;
+
+    private ItunesLibraryDiff(Set<Integer> addedTracks, Set<Integer> removedTracks, Set<Integer> changedTracks,
+                              List<ItunesPlaylist> addedPlaylists, List<ItunesPlaylist> removedPlaylists,
+                              Map<ItunesPlaylist, ItunesPlaylist> changedPlaylists,
+                              Map<ItunesPlaylist, ItunesPlaylist> unchangedPlaylists) {
+        this.addedTracks = addedTracks;
+        this.removedTracks = removedTracks;
+        this.changedTracks = changedTracks;
+        this.addedPlaylists = addedPlaylists;
+        this.removedPlaylists = removedPlaylists;
+        this.changedPlaylists = changedPlaylists;
+        this.unchangedPlaylists = unchangedPlaylists;
+    }
+
+    static ItunesLibraryDiff between(ItunesLibrary loaded, TrackTable loadedTracks, ItunesLibrary reloaded,
+                                     Predicate<ItunesPlaylist> isListed) {
+        Map<?, ?> reloadedTracks = reloaded.getTracks();
+        Set<Integer> addedTracks = new HashSet<>();
+        Set<Integer> changedTracks = new HashSet<>();
+        Set<Integer> removedTracks = new HashSet<>();
+        reloadedTracks.forEach((trackId, track) -> {
+            if (! loadedTracks.contains((Integer) trackId))
+                addedTracks.add((Integer) trackId);
+            else if (loadedTracks.isChanged((Integer) trackId, (ItunesTrack) track))
+                changedTracks.add((Integer) trackId);
+        });
+        loadedTracks.forEachTrackId(trackId -> {
+            if (! reloadedTracks.containsKey(trackId))
+                removedTracks.add(trackId);
+        });
+
+        Map<String, ItunesPlaylist> loadedPlaylists = listedPlaylistsByKey(loaded, isListed);
+        Map<String, ItunesPlaylist> reloadedPlaylists = listedPlaylistsByKey(reloaded, isListed);
+        List<ItunesPlaylist> addedPlaylists = new ArrayList<>();
+        Map<ItunesPlaylist, ItunesPlaylist> changedPlaylists = new LinkedHashMap<>();
+        Map<ItunesPlaylist, ItunesPlaylist> unchangedPlaylists = new IdentityHashMap<>();
+        reloadedPlaylists.forEach((key, playlist) -> {
+            ItunesPlaylist loadedPlaylist = loadedPlaylists.get(key);
+            if (loadedPlaylist == null)
+                addedPlaylists.add(playlist);
+            else if (isPlaylistChanged(loadedPlaylist, playlist, changedTracks, removedTracks))
+                changedPlaylists.put(loadedPlaylist, playlist);
+            else
+                unchangedPlaylists.put(playlist, loadedPlaylist);
+        });
+        List<ItunesPlaylist> removedPlaylists = new ArrayList<>();
+        loadedPlaylists.forEach((key, playlist) -> {
+            if (! reloadedPlaylists.containsKey(key))
+                removedPlaylists.add(playlist);
+        });
+
+        return new ItunesLibraryDiff(addedTracks, removedTracks, changedTracks, addedPlaylists, removedPlaylists,
+                                     changedPlaylists, unchangedPlaylists);
+    }
+
+    private static Map<String, ItunesPlaylist> listedPlaylistsByKey(ItunesLibrary library, Predicate<ItunesPlaylist> isListed) {
+        Map<String, ItunesPlaylist> playlistsByKey = new LinkedHashMap<>();
+        for (Object playlist : library.getPlaylists())
+            if (isListed.test((ItunesPlaylist) playlist))
+                playlistsByKey.put(playlistKey((ItunesPlaylist) playlist), (ItunesPlaylist) playlist);
+        return playlistsByKey;
+    }
+
+    private static String playlistKey(ItunesPlaylist playlist) {
+        return playlist.getPlaylistPersistentId() != null ? playlist.getPlaylistPersistentId() : "#" + playlist.getPlaylistID();
+    }
+
+    private static boolean isPlaylistChanged(ItunesPlaylist loaded, ItunesPlaylist reloaded,
+                                             Set<Integer> changedTracks, Set<Integer> removedTracks) {
+        if (! Objects.equals(loaded.getName(), reloaded.getName()) || ! loaded.getTrackIDs().equals(reloaded.getTrackIDs()))
+            return true;
+        for (Object trackId : loaded.getTrackIDs())
+            if (changedTracks.contains(trackId) || removedTracks.contains(trackId))
+                return true;
+        return false;
+    }
+
+    /**
+     * Applies the differences of the playlists to the loaded library, so that the listed playlists
+     * that did not change keep being the same instances, and the rest are replaced by copies of
+     * the reloaded ones that belong to the loaded library. The tracks are merged by its {@link TrackTable}.
+     *
+     * @param loaded   The library to update, the one this diff was computed against
+     * @param reloaded The new version of the library
+     *
+     * @return The diff with the added and changed playlists replaced by the instances
+     *         that now belong to the loaded library
+     */
+    ItunesLibraryDiff mergeInto(ItunesLibrary loaded, ItunesLibrary reloaded) {
+        Map<ItunesPlaylist, ItunesPlaylist> mergedPlaylists = new IdentityHashMap<>();
+        List<ItunesPlaylist> mergedAddedPlaylists = new ArrayList<>();
+        addedPlaylists.forEach(playlist -> {
+            ItunesPlaylist copy = copyOf(playlist, loaded);
+            mergedPlaylists.put(playlist, copy);
+            mergedAddedPlaylists.add(copy);
+        });
+        Map<ItunesPlaylist, ItunesPlaylist> mergedChangedPlaylists = new LinkedHashMap<>();
+        changedPlaylists.forEach((loadedPlaylist, playlist) -> {
+            ItunesPlaylist copy = copyOf(playlist, loaded);
+            mergedPlaylists.put(playlist, copy);
+            mergedChangedPlaylists.put(loadedPlaylist, copy);
+        });
+
+        List<ItunesPlaylist> playlists = new ArrayList<>();
+        for (Object playlist : reloaded.getPlaylists()) {
+            ItunesPlaylist merged = mergedPlaylists.get(playlist);
+            if (merged == null)
+                merged = unchangedPlaylists.get(playlist);
+            if (merged == null)
+                merged = copyOf((ItunesPlaylist) playlist, loaded);
+            playlists.add(merged);
+        }
+        loaded.getPlaylists().clear();
+        loaded.getPlaylists().addAll(playlists);
+
+        return new ItunesLibraryDiff(addedTracks, removedTracks, changedTracks, mergedAddedPlaylists, removedPlaylists,
+                                     mergedChangedPlaylists, Collections.emptyMap());
+    }
+
+    private static ItunesPlaylist copyOf(ItunesPlaylist playlist, ItunesLibrary library) {
+        ItunesPlaylist copy = new ItunesPlaylist(library);
+        copy.setName(playlist.getName());
+        copy.setPlaylistID(playlist.getPlaylistID());
+        copy.setPlaylistPersistentId(playlist.getPlaylistPersistentId());
+        copy.setVisible(playlist.isVisible());
+        copy.setAllItems(playlist.isAllItems());
+        copy.setMaster(playlist.isMaster());
+        copy.setAudiobooks(playlist.isAudiobooks());
+        copy.setMovies(playlist.isMovies());
+        copy.setMusic(playlist.isMusic());
+        copy.setPartyShuffle(playlist.isPartyShuffle());
+        copy.setPodcasts(playlist.isPodcasts());
+        copy.setTvShows(playlist.isTvShows());
+        copy.setSmartInfo(playlist.getSmartInfo());
+        copy.setSmartCriteria(playlist.getSmartCriteria());
+        copy.setTrackIDs(new ArrayList<>(playlist.getTrackIDs()));
+        return copy;
+    }
+
+    public boolean isEmpty() {
+        return addedTracks.isEmpty() && removedTracks.isEmpty() && changedTracks.isEmpty()
+                && addedPlaylists.isEmpty() && removedPlaylists.isEmpty() && changedPlaylists.isEmpty();
+    }
+
+    public Set<Integer> getAddedTracks() {
+        return addedTracks;
+    }
+
+    public Set<Integer> getRemovedTracks() {
+        return removedTracks;
+    }
+
+    public Set<Integer> getChangedTracks() {
+        return changedTracks;
+    }
+
+    public List<ItunesPlaylist> getAddedPlaylists() {
+        return addedPlaylists;
+    }
+
+    public List<ItunesPlaylist> getRemovedPlaylists() {
+        return removedPlaylists;
+    }
+
+    /**
+     * @return The new instance of each changed playlist, by its previous instance
+     */
+    public Map<ItunesPlaylist, ItunesPlaylist> getChangedPlaylists() {
+        return changedPlaylists;
+    }
+
+    @Override
+    public String toString() {
+        return "ItunesLibraryDiff{tracks: +" + addedTracks.size() + " -" + removedTracks.size() + " ~" + changedTracks.size() +
+                ", playlists: +" + addedPlaylists.size() + " -" + removedPlaylists.size() + " ~" + changedPlaylists.size() + "}";
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the iTunes library xml file for changes. iTunes rewrites the whole file, often
+ * in several steps or through a temporary file that is renamed afterwards, so the events
+ * are debounced: the action runs once the file has not been touched for a while.
+ *
+ * @author Octavio Calleya
+ */
+class ItunesLibraryWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ItunesLibraryWatcher.class);
+    private static final long DEBOUNCE_MILLIS = 2000;
+
+    private final Path libraryXmlFileName;
+    private final Runnable onLibraryChanged;
+    private final WatchService watchService;
+    private final Thread watchThread;
+    private final ScheduledExecutorService debounceScheduler;
+    private ScheduledFuture<?> pendingChange;
+
+    ItunesLibraryWatcher(Path libraryXmlFile, Runnable onLibraryChanged) throws IOException {
+        this.libraryXmlFileName = libraryXmlFile.getFileName();
+        this.onLibraryChanged = onLibraryChanged;
+        Path directory = libraryXmlFile.toAbsolutePath().getParent();
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        debounceScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "itunes-library-reimport");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchThread = new Thread(this::watch, "itunes-library-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        LOG.debug("Watching {} for changes", libraryXmlFile);
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                boolean libraryChanged = watchKey.pollEvents().stream()
+                        .anyMatch(event -> event.kind() == OVERFLOW || libraryXmlFileName.equals(event.context()));
+                if (libraryChanged)
+                    scheduleChange();
+                if (! watchKey.reset())
+                    return;
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException exception) {
+            LOG.debug("Stopped watching {}", libraryXmlFileName);
+        }
+    }
+
+    private synchronized void scheduleChange() {
+        if (pendingChange != null)
+            pendingChange.cancel(false);
+        pendingChange = debounceScheduler.schedule(onLibraryChanged, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watchThread.interrupt();
+        debounceScheduler.shutdownNow();
+    }
+}
@@ -19,27 +19,26 @@
 
 package com.transgressoft.itunesplaylistsutility.itunes;
 
-import com.transgressoft.itunesplaylistsutility.util.ItunesParserLogger;
+import com.transgressoft.itunesplaylistsutility.util.*;
 import com.transgressoft.itunesplaylistsutility.view.*;
 import com.worldsworstsoftware.itunes.*;
 import com.worldsworstsoftware.itunes.parser.ItunesLibraryParser;
 import org.slf4j.*;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import javax.xml.XMLConstants;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.*;
 import java.io.*;
-import java.net.URI;
 import java.nio.file.*;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
-import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
-
 /**
  * @author Octavio Calleya
  */
@@ -48,13 +47,26 @@ public class ItunesService {
 
     private static final Logger LOG = LoggerFactory.getLogger(ItunesService.class);
 
-    @Autowired
-    private MainView mainView;
-    @Autowired
-    private ErrorDialogView errorDialogView;
+    private ItunesLibraryView itunesLibraryView;
+    private ErrorView errorView;
+    private AsyncCopyLogger copyLogger;
+    private boolean linkFiles;
+    private FileCopyExecutorMode fileCopyExecutorMode = FileCopyExecutorMode.PLATFORM;
+    private int maxFilesInFlight;
+    private TrackStorage trackStorage = TrackStorage.HEAP;
 
     private ItunesLibrary itunesLibrary;
-    private CompletableFuture<ItunesLibrary> task;
+    private TrackLocationResolver trackLocationResolver = new TrackLocationResolver();
+    private volatile TrackTable trackTable;
+    private final Map<ItunesPlaylist, Long> totalSizes = Collections.synchronizedMap(new WeakHashMap<>());
+    private ItunesLibraryWatcher itunesLibraryWatcher;
+    private PlaylistSearchIndex playlistSearchIndex;
+    private long libraryGeneration;
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "itunes-export");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public boolean isValidItunesLibraryXmlFile(File itunesLibraryXmFile) {
         boolean isValid;
@@ -67,116 +79,255 @@ public class ItunesService {
             isValid = true;
         }
         catch (Exception exception) {
-            errorDialogView.withTitle("Error trying to validate the iTunes Library file")
-                    .withException(exception)
-                    .show();
+            errorView.showError("Error trying to validate the iTunes Library file", exception);
             isValid = false;
         }
         return isValid;
     }
 
-    public void cancelImport() {
-        task.cancel(false);
-    }
-
+    /**
+     * Parses the iTunes library in the background and shows its playlists. The library, its tracks
+     * and its search index are published together, and the file is watched for changes afterwards.
+     * The watcher of the previous library is stopped first, and a re-import of it that is already
+     * running is discarded, so it is never merged into the new library.
+     *
+     * @param itunesLibraryXmlFile The iTunes library xml file
+     */
     public void importItunesLibrary(File itunesLibraryXmlFile) {
-        task = CompletableFuture.supplyAsync(
-                () -> itunesLibrary = ItunesLibraryParser.parseLibrary(itunesLibraryXmlFile.getPath(), new ItunesParserLogger()));
+        CompletableFuture<ItunesLibrary> task = CompletableFuture.supplyAsync(() -> {
+            stopWatchingItunesLibrary();
+            ItunesLibrary parsedLibrary = ItunesLibraryParser.parseLibrary(itunesLibraryXmlFile.getPath(), new ItunesParserLogger());
+            TrackLocationResolver locationResolver = new TrackLocationResolver();
+            TrackTable parsedTracks;
+            try {
+                parsedTracks = trackStorage.createTable(parsedLibrary, locationResolver);
+            }
+            catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            PlaylistSearchIndex searchIndex = new PlaylistSearchIndex(this::getTrackName);
+            searchIndex.addPlaylists(validPlaylists(parsedLibrary));
+            synchronized (this) {
+                itunesLibrary = parsedLibrary;
+                trackTable = parsedTracks;
+                trackLocationResolver = locationResolver;
+                playlistSearchIndex = searchIndex;
+                totalSizes.clear();
+                libraryGeneration++;
+            }
+            return parsedLibrary;
+        });
         task.thenAccept(
-                itunesLibrary -> {
-                    List<ItunesPlaylist> validPlaylists = ((List<ItunesPlaylist>) itunesLibrary.getPlaylists()).stream()
-                            .filter(this::isValidItunesPlaylist)
-                            .collect(Collectors.toList());
-                    mainView.setItunesPlaylists(validPlaylists);
+                parsedLibrary -> {
+                    PlaylistSearchIndex searchIndex;
+                    long generation;
+                    synchronized (this) {
+                        if (parsedLibrary != itunesLibrary)
+                            return;
+                        searchIndex = playlistSearchIndex;
+                        generation = libraryGeneration;
+                    }
+                    itunesLibraryView.setPlaylistSearchIndex(searchIndex);
+                    itunesLibraryView.setItunesPlaylists(validPlaylists(parsedLibrary));
+                    watchItunesLibrary(itunesLibraryXmlFile, generation);
                 });
     }
 
-    private boolean isValidItunesPlaylist(ItunesPlaylist itunesPlaylist) {
-        boolean notStrangeName = ! "####!####".equals(itunesPlaylist.getName());
-        boolean notEmpty = ! itunesPlaylist.getPlaylistItems().isEmpty();
-        return notStrangeName && notEmpty;
+    private List<ItunesPlaylist> validPlaylists(ItunesLibrary library) {
+        return ((List<ItunesPlaylist>) library.getPlaylists()).stream()
+                .filter(this::isValidItunesPlaylist)
+                .collect(Collectors.toList());
     }
 
+    private synchronized void watchItunesLibrary(File itunesLibraryXmlFile, long generation) {
+        if (generation != libraryGeneration)
+            return;
+        stopWatchingItunesLibrary();
+        try {
+            itunesLibraryWatcher = new ItunesLibraryWatcher(itunesLibraryXmlFile.toPath(),
+                                                            () -> reimportItunesLibrary(itunesLibraryXmlFile, generation));
+        }
+        catch (IOException exception) {
+            LOG.warn("Unable to watch {} for changes: {}", itunesLibraryXmlFile, exception.getMessage());
+        }
+    }
 
-    public void copyItunesPlaylists(List<ItunesPlaylist> playlistsToCopy, File targetDestination) {
-        Map<String, List<Path>> trackPathsByPlaylistName = trackPathsByPlaylistName(playlistsToCopy);
-
-        int totalTracks = trackPathsByPlaylistName.values().stream().mapToInt(List::size).sum();
-
-        int count = 0;
-        for (Map.Entry<String, List<Path>> entry : trackPathsByPlaylistName.entrySet()) {
-            String playlistName = entry.getKey();
-            List<Path> itunesFilePaths = entry.getValue();
-            Path playlistPath = targetDestination.toPath().resolve(playlistName);
-            if (! playlistPath.toFile().mkdir()) {
-                count += entry.getValue().size();
-                mainView.log("Unable to create directory " + playlistPath.toString());
+    @PreDestroy
+    public synchronized void stopWatchingItunesLibrary() {
+        if (itunesLibraryWatcher != null) {
+            try {
+                itunesLibraryWatcher.close();
             }
-            else
-                count = copyItunesTracks(itunesFilePaths, playlistPath, count, totalTracks);
-
+            catch (IOException exception) {
+                LOG.debug("Error closing the iTunes library watcher", exception);
+            }
+            itunesLibraryWatcher = null;
         }
     }
 
-    private Map<String, List<Path>> trackPathsByPlaylistName(List<ItunesPlaylist> playlists) {
-        return playlists.stream()
-                .collect(Collectors.toMap(ItunesPlaylist::getName, this::itunesFilePaths));
-    }
+    /**
+     * Parses again the iTunes library after it was rewritten, without validating it again,
+     * and applies only the differences with the loaded one, so that the playlists that
+     * did not change stay the same and the view updates only the affected ones.
+     */
+    private void reimportItunesLibrary(File itunesLibraryXmlFile, long generation) {
+        ItunesLibrary reloadedLibrary;
+        try {
+            reloadedLibrary = ItunesLibraryParser.parseLibrary(itunesLibraryXmlFile.getPath(), new ItunesParserLogger());
+        }
+        catch (RuntimeException exception) {
+            LOG.warn("Error re-importing the iTunes library, keeping the loaded one: {}", exception.getMessage());
+            return;
+        }
 
-    private int copyItunesTracks(List<Path> filePaths, Path targetDirectory, int tracksCount, int totalTracks) {
-        int count = tracksCount;
-        for (int i = 0; i < filePaths.size(); i++) {
-            Path path = filePaths.get(i);
+        ItunesLibraryDiff libraryDiff;
+        synchronized (this) {
+            if (generation != libraryGeneration) {
+                LOG.debug("Discarding the re-import of {}, another library was imported", itunesLibraryXmlFile);
+                return;
+            }
+            libraryDiff = ItunesLibraryDiff.between(itunesLibrary, trackTable, reloadedLibrary, this::isValidItunesPlaylist);
+            if (libraryDiff.isEmpty())
+                return;
             try {
-                String ensuredFileName = ensuredFileNameOnPath(targetDirectory, path.toFile().getName());
-                Files.copy(path, targetDirectory.resolve(ensuredFileName), COPY_ATTRIBUTES);
-                LOG.info("File copied: {}", path);
-                mainView.log("File copied: " + path.toFile().getName());
-
+                trackTable = trackTable.merge(libraryDiff, reloadedLibrary);
             }
             catch (IOException exception) {
-                LOG.info("Error copying file {}", path.toFile().getName());
-                mainView.log("Error copying file " + path.toFile().getName());
+                LOG.warn("Error storing the re-imported tracks, keeping the loaded library: {}", exception.getMessage());
+                return;
             }
-
-            mainView.updateProgress((1.0 * count++) / totalTracks);
+            totalSizes.clear();
+            libraryDiff = libraryDiff.mergeInto(itunesLibrary, reloadedLibrary);
+            playlistSearchIndex.update(libraryDiff);
         }
-        return count;
+        LOG.info("iTunes library changed: {}", libraryDiff);
+        itunesLibraryView.applyItunesLibraryDiff(libraryDiff);
+    }
+
+    private boolean isValidItunesPlaylist(ItunesPlaylist itunesPlaylist) {
+        boolean notStrangeName = ! "####!####".equals(itunesPlaylist.getName());
+        boolean notEmpty = ! itunesPlaylist.getTrackIDs().isEmpty();
+        return notStrangeName && notEmpty;
     }
 
     /**
-     * Ensures that the file name given is unique in the target directory, appending
-     * (1), (2)... (n+1) to the file name in case it already exists
+     * Sums the size of the tracks of the playlist from the stored tracks, without
+     * creating the track objects of the playlist. The sum is kept until the tracks change.
      *
-     * @param fileName   The string of the file name
-     * @param targetPath The path to check if there is a file with the name equals <tt>fileName</tt>
+     * @param itunesPlaylist The playlist
      *
-     * @return The modified string
+     * @return The total size in bytes
      */
-    private String ensuredFileNameOnPath(Path targetPath, String fileName) {
-        String newName = fileName;
-        if (targetPath.resolve(fileName).toFile().exists()) {
-            int pos = fileName.lastIndexOf('.');
-            newName = fileName.substring(0, pos) + "(1)." + fileName.substring(pos + 1);
-        }
-        while (targetPath.resolve(newName).toFile().exists()) {
-            int posL = newName.lastIndexOf('(');
-            int posR = newName.lastIndexOf(')');
-            int num = Integer.parseInt(newName.substring(posL + 1, posR));
-            newName = newName.substring(0, posL + 1) + ++ num + newName.substring(posR);
-        }
-        return newName;
+    public long getTotalSize(ItunesPlaylist itunesPlaylist) {
+        return totalSizes.computeIfAbsent(itunesPlaylist, playlist -> trackTable.getTotalSize(playlist.getTrackIDs()));
+    }
+
+    private String getTrackName(int trackId) {
+        TrackTable tracks = trackTable;
+        return tracks.contains(trackId) ? tracks.getName(trackId) : null;
     }
 
-    private List<Path> itunesFilePaths(ItunesPlaylist itunesPlaylist) {
-        return ((List<Integer>) itunesPlaylist.getTrackIDs()).stream()
-                .map(itunesLibrary::getTrackById)
-                .filter(this::isValidItunesTrack)
-                .map(track -> Paths.get(URI.create(track.getLocation())))
+
+    public void copyItunesPlaylists(List<ItunesPlaylist> playlistsToCopy, File targetDestination) {
+        copyItunesPlaylists(playlistsToCopy, Collections.singletonList(targetDestination));
+    }
+
+    /**
+     * Copies the tracks of the given playlists to several destinations, waiting until it finishes
+     *
+     * @param playlistsToCopy    The playlists to copy
+     * @param targetDestinations The directories where to copy the playlists
+     */
+    public void copyItunesPlaylists(List<ItunesPlaylist> playlistsToCopy, List<File> targetDestinations) {
+        List<ExportDestination> destinations = targetDestinations.stream()
+                .map(targetDestination -> exportDestination(targetDestination.toPath()))
                 .collect(Collectors.toList());
+        exportPlaylists(playlistsToCopy, destinations).start().join();
     }
 
-    private boolean isValidItunesTrack(ItunesTrack itunesTrack) {
-        return ! "URL".equals(itunesTrack.getTrackType()) && ! "Remote".equals(itunesTrack.getTrackType());
+    /**
+     * Prepares the copy of the tracks of the given playlists to several destinations at once.
+     * Each source file is read only once and written to all the destinations in parallel.
+     * A failure on one destination, such as a directory that could not be created or a
+     * full device, does not affect the copy to the others.
+     *
+     * <p>The copy runs in the background once the returned job is started, and while it
+     * runs the library is not updated by re-imports.</p>
+     *
+     * @param playlistsToCopy The playlists to copy
+     * @param destinations    The destinations where to copy the playlists
+     *
+     * @return The job of the copy, not started yet
+     */
+    public ExportJob exportPlaylists(List<ItunesPlaylist> playlistsToCopy, List<ExportDestination> destinations) {
+        TrackLocationResolver locationResolver = trackLocationResolver;
+        TrackTable tracks = trackTable;
+        PlaylistCopyPlan copyPlan = new PlaylistCopyPlan(new ArrayList<>(playlistsToCopy),
+                                                         trackId -> tracks.contains(trackId) && isValidItunesTrack(tracks, trackId),
+                                                         tracks::getPath);
+        ExportJob exportJob = new ExportJob(copyPlan, destinations, copyLogger, this, exportExecutor, ForkJoinPool.commonPool(),
+                                            fileCopyExecutorMode, maxFilesInFlight);
+        exportJob.getCompletion().thenRun(() -> LOG.debug("Resolved locations of {} tracks in {} directories",
+                                                          locationResolver.cachedTracks(), locationResolver.cachedDirectories()));
+        return exportJob;
+    }
+
+    /**
+     * Creates a destination on the file system of the given directory, that links the files
+     * instead of copying them when the {@code itunes.export.link-files} property is set
+     *
+     * @param root The directory where to copy the playlists
+     *
+     * @return The destination
+     */
+    public ExportDestination exportDestination(Path root) {
+        return ExportDestination.of(root, linkFiles);
+    }
+
+    private boolean isValidItunesTrack(TrackTable tracks, int trackId) {
+        String trackType = tracks.getTrackType(trackId);
+        return ! "URL".equals(trackType) && ! "Remote".equals(trackType);
+    }
+
+    @Autowired
+    public void setItunesLibraryView(ItunesLibraryView itunesLibraryView) {
+        this.itunesLibraryView = itunesLibraryView;
+    }
+
+    @Lazy
+    @Autowired
+    public void setErrorView(ErrorView errorView) {
+        this.errorView = errorView;
+    }
+
+    @Value("${itunes.export.link-files:false}")
+    public void setLinkFiles(boolean linkFiles) {
+        this.linkFiles = linkFiles;
+    }
+
+    @Value("${itunes.export.executor:PLATFORM}")
+    public void setFileCopyExecutorMode(FileCopyExecutorMode fileCopyExecutorMode) {
+        if (fileCopyExecutorMode.isSupported())
+            this.fileCopyExecutorMode = fileCopyExecutorMode;
+        else {
+            LOG.warn("Copy executor {} is not supported on Java {}, using {}", fileCopyExecutorMode,
+                     System.getProperty("java.version"), FileCopyExecutorMode.PLATFORM);
+            this.fileCopyExecutorMode = FileCopyExecutorMode.PLATFORM;
+        }
+    }
+
+    @Value("${itunes.export.max-files-in-flight:64}")
+    public void setMaxFilesInFlight(int maxFilesInFlight) {
+        this.maxFilesInFlight = maxFilesInFlight;
+    }
+
+    @Value("${itunes.library.track-storage:HEAP}")
+    public void setTrackStorage(TrackStorage trackStorage) {
+        this.trackStorage = trackStorage;
+    }
+
+    @Autowired
+    public void setCopyLogger(AsyncCopyLogger copyLogger) {
+        this.copyLogger = copyLogger;
     }
 }
@@ -0,0 +1,341 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+import org.slf4j.*;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * {@link TrackTable} kept in a memory-mapped file, out of the heap, so the memory used by the
+ * application does not grow with the number of tracks of the library and the garbage collector
+ * never has to go through them.
+ *
+ * <p>The file has a fixed-width record for each track, sorted by track id, followed by a pool
+ * with the strings of the tracks, each one as its length and its UTF-8 bytes, all of them
+ * in the native byte order since the file is only read by the process that writes it:</p>
+ * <pre>
+ *   0  int   track id
+ *   4  int   track type code
+ *   8  long  size
+ *  16  int   offset of the location in the pool, or -1
+ *  20  int   offset of the name in the pool, or -1
+ *  24  long  fingerprint of the fields compared on re-imports
+ * </pre>
+ *
+ * <p>Tracks are found by binary search over the records, so the look ups, the sizes and
+ * the types are read without creating any object. Only the names and the paths are built
+ * when asked for. The file is deleted as soon as it is mapped, where the operating system
+ * allows it, and the memory is released when the table is no longer referenced. Where it
+ * does not, as on Windows, the file is left until it is no longer mapped, and deleted by the
+ * next table written to the directory, in the same session or in a later one.</p>
+ *
+ * @author Octavio Calleya
+ */
+class MappedTrackTable implements TrackTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedTrackTable.class);
+
+    private static final int RECORD_SIZE = 32;
+    private static final int ID = 0;
+    private static final int TYPE = 4;
+    private static final int SIZE = 8;
+    private static final int LOCATION = 16;
+    private static final int NAME = 20;
+    private static final int FINGERPRINT = 24;
+    private static final int NO_STRING = -1;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String FILE_PREFIX = "itunes-tracks";
+    private static final String FILE_SUFFIX = ".table";
+
+    /**
+     * The known track types by their code, the code 0 is for any other type
+     */
+    private static final String[] TRACK_TYPES = {null, "File", "URL", "Remote"};
+
+    private final ByteBuffer table;
+    private final int records;
+    private final int poolStart;
+    private final Path directory;
+    private final TrackLocationResolver locationResolver;
+
+    private MappedTrackTable(ByteBuffer table, int records, Path directory, TrackLocationResolver locationResolver) {
+        this.table = table;
+        this.records = records;
+        this.poolStart = records * RECORD_SIZE;
+        this.directory = directory;
+        this.locationResolver = locationResolver;
+    }
+
+    /**
+     * Writes the tracks to a new table file in the given directory and maps it, deleting
+     * first the table files left in the directory that are no longer in use
+     *
+     * @param tracks           The tracks of a library, by track id
+     * @param directory        The directory where to create the file
+     * @param locationResolver The resolver of the paths of the tracks
+     *
+     * @return The table
+     *
+     * @throws IOException If the file could not be written, or is too large to be mapped
+     */
+    static MappedTrackTable write(Map<?, ?> tracks, Path directory, TrackLocationResolver locationResolver) throws IOException {
+        int[] trackIds = tracks.keySet().stream().mapToInt(trackId -> (Integer) trackId).sorted().toArray();
+        deleteLeftTables(directory);
+        Path file = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+        ByteBuffer mappedTable;
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            TableWriter tableWriter = new TableWriter(channel, (long) trackIds.length * RECORD_SIZE);
+            for (int trackId : trackIds)
+                tableWriter.writeRecord((ItunesTrack) tracks.get(trackId));
+            long tableSize = tableWriter.finish();
+            if (tableSize > Integer.MAX_VALUE)
+                throw new IOException("Track table of " + tableSize + " bytes is too large to be mapped");
+            mappedTable = channel.map(FileChannel.MapMode.READ_ONLY, 0, tableSize).order(ByteOrder.nativeOrder());
+        }
+        catch (IOException exception) {
+            Files.deleteIfExists(file);
+            throw exception;
+        }
+        try {
+            Files.delete(file);
+        }
+        catch (IOException exception) {
+            LOG.debug("Unable to delete the mapped file {}, deleting it once it is no longer mapped", file);
+        }
+        LOG.debug("Mapped {} tracks in {} bytes", trackIds.length, mappedTable.capacity());
+        return new MappedTrackTable(mappedTable, trackIds.length, directory, locationResolver);
+    }
+
+    /**
+     * Deletes the table files that could not be deleted when they were mapped. The ones
+     * still mapped, by this process or by another one, cannot be deleted and are left.
+     */
+    private static void deleteLeftTables(Path directory) {
+        try (DirectoryStream<Path> leftTables = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path leftTable : leftTables)
+                try {
+                    if (Files.deleteIfExists(leftTable))
+                        LOG.debug("Deleted the table file {}", leftTable);
+                }
+                catch (IOException exception) {
+                    LOG.debug("Unable to delete the table file {}, still in use", leftTable);
+                }
+        }
+        catch (IOException exception) {
+            LOG.warn("Unable to look for table files left in {}", directory, exception);
+        }
+    }
+
+    /**
+     * @return The position of the record of the track, or -1 if it is not in the table
+     */
+    private int recordOf(int trackId) {
+        int low = 0;
+        int high = records - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = table.getInt(middle * RECORD_SIZE + ID);
+            if (middleId < trackId)
+                low = middle + 1;
+            else if (middleId > trackId)
+                high = middle - 1;
+            else
+                return middle * RECORD_SIZE;
+        }
+        return -1;
+    }
+
+    private int existingRecordOf(int trackId) {
+        int record = recordOf(trackId);
+        if (record < 0)
+            throw new IllegalArgumentException("No track with id " + trackId);
+        return record;
+    }
+
+    private String readString(int poolOffset) {
+        if (poolOffset == NO_STRING)
+            return null;
+        int position = poolStart + poolOffset;
+        byte[] bytes = new byte[table.getInt(position)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = table.get(position + Integer.BYTES + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean contains(int trackId) {
+        return recordOf(trackId) >= 0;
+    }
+
+    @Override
+    public long getSize(int trackId) {
+        return table.getLong(existingRecordOf(trackId) + SIZE);
+    }
+
+    @Override
+    public String getTrackType(int trackId) {
+        return TRACK_TYPES[table.getInt(existingRecordOf(trackId) + TYPE)];
+    }
+
+    @Override
+    public String getName(int trackId) {
+        return readString(table.getInt(existingRecordOf(trackId) + NAME));
+    }
+
+    @Override
+    public Path getPath(int trackId) {
+        return locationResolver.decode(readString(table.getInt(existingRecordOf(trackId) + LOCATION)));
+    }
+
+    @Override
+    public void forEachTrackId(IntConsumer action) {
+        for (int record = 0; record < poolStart; record += RECORD_SIZE)
+            action.accept(table.getInt(record + ID));
+    }
+
+    @Override
+    public boolean isChanged(int trackId, ItunesTrack reloaded) {
+        return table.getLong(existingRecordOf(trackId) + FINGERPRINT) != fingerprint(reloaded);
+    }
+
+    /**
+     * Writes a new table with the tracks of the reloaded library, which are then
+     * removed from it, so they do not stay on the heap
+     */
+    @Override
+    public TrackTable merge(ItunesLibraryDiff libraryDiff, ItunesLibrary reloaded) throws IOException {
+        MappedTrackTable mergedTable = write(reloaded.getTracks(), directory, locationResolver);
+        reloaded.getTracks().clear();
+        return mergedTable;
+    }
+
+    private static int trackTypeCode(String trackType) {
+        for (int code = 1; code < TRACK_TYPES.length; code++)
+            if (TRACK_TYPES[code].equals(trackType))
+                return code;
+        return 0;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the fields of a track that are compared to find out if it changed
+     */
+    private static long fingerprint(ItunesTrack track) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fingerprint(hash, track.getLocation());
+        hash = fingerprint(hash, track.getSize());
+        hash = fingerprint(hash, track.getTotalTime());
+        hash = fingerprint(hash, track.getTrackType());
+        hash = fingerprint(hash, track.getName());
+        return fingerprint(hash, track.getDateModified());
+    }
+
+    private static long fingerprint(long hash, String value) {
+        if (value == null)
+            return fingerprint(hash, -1);
+        for (int i = 0; i < value.length(); i++)
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        return fingerprint(hash, value.length());
+    }
+
+    private static long fingerprint(long hash, int value) {
+        for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE)
+            hash = (hash ^ ((value >>> shift) & 0xff)) * 0x100000001b3L;
+        return hash;
+    }
+
+    /**
+     * Writes the records from the start of the file, and the strings to the pool after them
+     */
+    private static class TableWriter {
+
+        private final FileChannel channel;
+        private final long poolStart;
+        private final ByteBuffer recordsBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+        private final ByteBuffer poolBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+        private long recordsPosition;
+        private long poolPosition;
+        private long poolSize;
+
+        private TableWriter(FileChannel channel, long poolStart) {
+            this.channel = channel;
+            this.poolStart = poolStart;
+            this.poolPosition = poolStart;
+        }
+
+        private void writeRecord(ItunesTrack track) throws IOException {
+            if (recordsBuffer.remaining() < RECORD_SIZE)
+                recordsPosition += flush(recordsBuffer, recordsPosition);
+            recordsBuffer.putInt(track.getTrackID());
+            recordsBuffer.putInt(trackTypeCode(track.getTrackType()));
+            recordsBuffer.putLong(track.getSize());
+            recordsBuffer.putInt(writeString(track.getLocation()));
+            recordsBuffer.putInt(writeString(track.getName()));
+            recordsBuffer.putLong(fingerprint(track));
+        }
+
+        private int writeString(String string) throws IOException {
+            if (string == null)
+                return NO_STRING;
+            if (poolStart + poolSize > Integer.MAX_VALUE)
+                throw new IOException("Track table is too large to be mapped");
+            int offset = (int) poolSize;
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (poolBuffer.remaining() < Integer.BYTES + bytes.length)
+                poolPosition += flush(poolBuffer, poolPosition);
+            if (poolBuffer.remaining() < Integer.BYTES + bytes.length) {
+                ByteBuffer largeString = ByteBuffer.allocate(Integer.BYTES + bytes.length).order(ByteOrder.nativeOrder());
+                largeString.putInt(bytes.length).put(bytes);
+                poolPosition += flush(largeString, poolPosition);
+            }
+            else
+                poolBuffer.putInt(bytes.length).put(bytes);
+            poolSize += Integer.BYTES + bytes.length;
+            return offset;
+        }
+
+        private int flush(ByteBuffer buffer, long position) throws IOException {
+            buffer.flip();
+            int written = 0;
+            while (buffer.hasRemaining())
+                written += channel.write(buffer, position + written);
+            buffer.clear();
+            return written;
+        }
+
+        /**
+         * @return The size of the table
+         */
+        private long finish() throws IOException {
+            flush(recordsBuffer, recordsPosition);
+            flush(poolBuffer, poolPosition);
+            return poolStart + poolSize;
+        }
+    }
+}
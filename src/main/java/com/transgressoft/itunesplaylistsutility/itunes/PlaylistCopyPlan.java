@@ -0,0 +1,168 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.ItunesPlaylist;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Lazy sequence of the files to copy for a selection of playlists. Nothing is resolved
+ * up front: each {@link CopyTask} checks its track and resolves its file path only
+ * when the iterator reaches it, so the copy can start immediately and the memory used
+ * does not grow with the size of the selection.
+ *
+ * <p>Playlists are kept in the given order and identified by instance, not by name,
+ * so several playlists with the same name are copied to different directories.</p>
+ *
+ * @author Octavio Calleya
+ */
+class PlaylistCopyPlan implements Iterable<PlaylistCopyPlan.CopyTask> {
+
+    private final List<ItunesPlaylist> playlists;
+    private final IntPredicate isCopyable;
+    private final IntFunction<Path> trackPath;
+
+    PlaylistCopyPlan(List<ItunesPlaylist> playlists, IntPredicate isCopyable, IntFunction<Path> trackPath) {
+        this.playlists = playlists;
+        this.isCopyable = isCopyable;
+        this.trackPath = trackPath;
+    }
+
+    /**
+     * Counts the tracks that the plan will yield. Only the tracks are checked,
+     * no file location is resolved.
+     *
+     * @return The number of {@link CopyTask}s of the plan
+     */
+    int countTracks() {
+        int count = 0;
+        for (ItunesPlaylist playlist : playlists)
+            count += countTracks(playlist);
+        return count;
+    }
+
+    int countTracks(ItunesPlaylist playlist) {
+        int count = 0;
+        for (Object trackId : playlist.getTrackIDs())
+            if (isCopyable.test((Integer) trackId))
+                count++;
+        return count;
+    }
+
+    /**
+     * Returns the directory names for the playlists of the plan. The first playlist with each
+     * name keeps it, and the repeated ones get the first free of (1), (2)... (n) appended,
+     * in the same way as the copied files with the same name. A suffixed name is never one
+     * that is already given out, nor the name of another playlist of the selection.
+     *
+     * @return A map with the directory name of each playlist instance
+     */
+    Map<ItunesPlaylist, String> directoryNames() {
+        Map<ItunesPlaylist, String> directoryNames = new IdentityHashMap<>();
+        Set<String> takenNames = new HashSet<>();
+        List<ItunesPlaylist> repeatedPlaylists = new ArrayList<>();
+        for (ItunesPlaylist playlist : playlists) {
+            if (takenNames.add(playlist.getName()))
+                directoryNames.put(playlist, playlist.getName());
+            else
+                repeatedPlaylists.add(playlist);
+        }
+        for (ItunesPlaylist playlist : repeatedPlaylists) {
+            String name;
+            int occurrence = 1;
+            do
+                name = playlist.getName() + "(" + occurrence++ + ")";
+            while (! takenNames.add(name));
+            directoryNames.put(playlist, name);
+        }
+        return directoryNames;
+    }
+
+    @Override
+    public Iterator<CopyTask> iterator() {
+        return new CopyTaskIterator();
+    }
+
+    /**
+     * A single file of a playlist to be copied.
+     */
+    static class CopyTask {
+
+        private final ItunesPlaylist playlist;
+        private final int trackId;
+        private final IntFunction<Path> trackPath;
+
+        private CopyTask(ItunesPlaylist playlist, int trackId, IntFunction<Path> trackPath) {
+            this.playlist = playlist;
+            this.trackId = trackId;
+            this.trackPath = trackPath;
+        }
+
+        ItunesPlaylist getPlaylist() {
+            return playlist;
+        }
+
+        int getTrackId() {
+            return trackId;
+        }
+
+        Path getSourcePath() {
+            return trackPath.apply(trackId);
+        }
+    }
+
+    private class CopyTaskIterator implements Iterator<CopyTask> {
+
+        private final Iterator<ItunesPlaylist> playlistIterator = playlists.iterator();
+        private ItunesPlaylist currentPlaylist;
+        private Iterator<?> trackIdIterator = Collections.emptyIterator();
+        private CopyTask next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (trackIdIterator.hasNext()) {
+                    int trackId = (Integer) trackIdIterator.next();
+                    if (isCopyable.test(trackId))
+                        next = new CopyTask(currentPlaylist, trackId, trackPath);
+                }
+                else if (playlistIterator.hasNext()) {
+                    currentPlaylist = playlistIterator.next();
+                    trackIdIterator = currentPlaylist.getTrackIDs().iterator();
+                }
+                else
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public CopyTask next() {
+            if (! hasNext())
+                throw new NoSuchElementException();
+            CopyTask task = next;
+            next = null;
+            return task;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.function.*;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram index over the names of the playlists, and of their tracks, to find the
+ * playlists that contain a text without scanning all of them. Names are compared
+ * ignoring case and accents.
+ *
+ * <p>The candidates of a search are those of the least frequent trigram of the query,
+ * which are then checked against their names. Queries shorter than a trigram check all
+ * the names. When a query extends the previous one, as it happens while typing, only
+ * the previous matches are checked.</p>
+ *
+ * <p>The names of the tracks are only indexed when {@link #indexTrackNames()} is called,
+ * so they are not copied to the heap, even when the tracks are kept out of it, unless
+ * they are actually searched. The indexing runs without holding the lock of the index,
+ * so it can be done in the background while the index is searched, and until it
+ * finishes the searches only look at the names of the playlists.</p>
+ *
+ * <p>Removed playlists and tracks are only discarded, they are never removed from the
+ * trigrams, since the check of the names leaves them out anyway.</p>
+ *
+ * @author Octavio Calleya
+ */
+public class PlaylistSearchIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final List<ItunesPlaylist> playlists = new ArrayList<>();
+    private final List<String> playlistNames = new ArrayList<>();
+    private final Map<ItunesPlaylist, Integer> playlistOrdinals = new IdentityHashMap<>();
+    private final BitSet livePlaylists = new BitSet();
+    private final Map<Long, Postings> playlistTrigrams = new HashMap<>();
+
+    private final IntFunction<String> trackNameById;
+    private TrackNamesIndex trackNamesIndex;
+    private int modifications;
+
+    private String lastQuery;
+    private BitSet lastPlaylistMatches;
+    private BitSet lastTrackMatches;
+
+    /**
+     * @param trackNameById The name of each track, by track id
+     */
+    public PlaylistSearchIndex(IntFunction<String> trackNameById) {
+        this.trackNameById = trackNameById;
+    }
+
+    public synchronized void addPlaylists(Collection<ItunesPlaylist> itunesPlaylists) {
+        itunesPlaylists.forEach(this::addPlaylist);
+        modifications++;
+        lastQuery = null;
+    }
+
+    public synchronized boolean isTrackNamesIndexed() {
+        return trackNamesIndex != null;
+    }
+
+    /**
+     * Indexes the names of the tracks of the playlists, so that they are included in the
+     * searches that ask for them. The names are read and indexed from a copy of the list
+     * of playlists without holding the lock of the index, and the result is discarded and
+     * built again if the playlists were modified meanwhile.
+     */
+    public void indexTrackNames() {
+        while (true) {
+            List<ItunesPlaylist> indexedPlaylists;
+            int indexedModifications;
+            synchronized (this) {
+                if (trackNamesIndex != null)
+                    return;
+                indexedPlaylists = new ArrayList<>(playlists);
+                indexedModifications = modifications;
+            }
+            TrackNamesIndex newTrackNamesIndex = new TrackNamesIndex();
+            for (int ordinal = 0; ordinal < indexedPlaylists.size(); ordinal++)
+                if (indexedPlaylists.get(ordinal) != null)
+                    newTrackNamesIndex.addTracks(indexedPlaylists.get(ordinal), ordinal);
+            synchronized (this) {
+                if (modifications == indexedModifications) {
+                    trackNamesIndex = newTrackNamesIndex;
+                    lastQuery = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the changes of a re-import of the library, replacing the changed playlists
+     * by their new instances and indexing again the tracks whose name changed.
+     *
+     * @param itunesLibraryDiff The diff, already merged into the loaded library
+     */
+    public synchronized void update(ItunesLibraryDiff itunesLibraryDiff) {
+        itunesLibraryDiff.getRemovedPlaylists().forEach(this::removePlaylist);
+        if (trackNamesIndex != null)
+            itunesLibraryDiff.getRemovedTracks().forEach(trackNamesIndex::removeTrack);
+        itunesLibraryDiff.getChangedPlaylists().forEach((previous, changed) -> {
+            removePlaylist(previous);
+            addPlaylist(changed);
+        });
+        itunesLibraryDiff.getAddedPlaylists().forEach(this::addPlaylist);
+        modifications++;
+        lastQuery = null;
+    }
+
+    private void addPlaylist(ItunesPlaylist playlist) {
+        int ordinal = playlists.size();
+        String name = normalize(playlist.getName());
+        playlists.add(playlist);
+        playlistNames.add(name);
+        playlistOrdinals.put(playlist, ordinal);
+        livePlaylists.set(ordinal);
+        addTrigrams(playlistTrigrams, name, ordinal);
+        if (trackNamesIndex != null)
+            trackNamesIndex.addTracks(playlist, ordinal);
+    }
+
+    private void removePlaylist(ItunesPlaylist playlist) {
+        Integer ordinal = playlistOrdinals.remove(playlist);
+        if (ordinal != null) {
+            livePlaylists.clear(ordinal);
+            playlists.set(ordinal, null);
+            playlistNames.set(ordinal, null);
+        }
+    }
+
+    /**
+     * Finds the playlists whose name, or the name of any of their tracks if requested,
+     * contains the given text.
+     *
+     * @param query             The text to search
+     * @param includeTrackNames Whether to search in the names of the tracks too, once they are indexed
+     *
+     * @return The matching playlists, compared by identity
+     */
+    public synchronized Set<ItunesPlaylist> search(String query, boolean includeTrackNames) {
+        String normalizedQuery = normalize(query.trim());
+        boolean refinesLastQuery = lastQuery != null && normalizedQuery.contains(lastQuery);
+
+        BitSet playlistMatches = matches(normalizedQuery, playlistTrigrams, playlistNames::get,
+                                         refinesLastQuery ? lastPlaylistMatches : livePlaylists);
+        BitSet trackMatches = null;
+        if (includeTrackNames && trackNamesIndex != null) {
+            BitSet trackCandidates = refinesLastQuery && lastTrackMatches != null ? lastTrackMatches : trackNamesIndex.liveTracks;
+            trackMatches = matches(normalizedQuery, trackNamesIndex.trackTrigrams, trackNamesIndex.trackNames::get, trackCandidates);
+        }
+        lastQuery = normalizedQuery;
+        lastPlaylistMatches = playlistMatches;
+        lastTrackMatches = trackMatches;
+
+        BitSet result = (BitSet) playlistMatches.clone();
+        if (trackMatches != null)
+            trackMatches.stream().forEach(trackId -> trackNamesIndex.trackPlaylists.get(trackId).forEach(result::set));
+        result.and(livePlaylists);
+
+        Set<ItunesPlaylist> matchingPlaylists = Collections.newSetFromMap(new IdentityHashMap<>(result.cardinality()));
+        result.stream().forEach(ordinal -> matchingPlaylists.add(playlists.get(ordinal)));
+        return matchingPlaylists;
+    }
+
+    private BitSet matches(String query, Map<Long, Postings> trigrams, IntFunction<String> names, BitSet candidates) {
+        BitSet matches = (BitSet) candidates.clone();
+        if (query.length() >= 3 && candidates.cardinality() > 0) {
+            Postings leastFrequent = null;
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                Postings postings = trigrams.get(trigram(query, i));
+                if (postings == null)
+                    return new BitSet();
+                if (leastFrequent == null || postings.size < leastFrequent.size)
+                    leastFrequent = postings;
+            }
+            if (leastFrequent.size < matches.cardinality()) {
+                BitSet trigramMatches = new BitSet();
+                leastFrequent.forEach(trigramMatches::set);
+                matches.and(trigramMatches);
+            }
+        }
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            String name = names.apply(id);
+            if (name == null || ! name.contains(query))
+                matches.clear(id);
+        }
+        return matches;
+    }
+
+    private static void addTrigrams(Map<Long, Postings> trigrams, String name, int id) {
+        for (int i = 0; i + 3 <= name.length(); i++)
+            trigrams.computeIfAbsent(trigram(name, i), key -> new Postings()).add(id);
+    }
+
+    private static long trigram(String text, int position) {
+        return ((long) text.charAt(position) << 32) | ((long) text.charAt(position + 1) << 16) | text.charAt(position + 2);
+    }
+
+    private static String normalize(String text) {
+        if (text == null)
+            return "";
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Trigrams of the names of the tracks, and the playlists of each track
+     */
+    private class TrackNamesIndex {
+
+        private final Map<Integer, String> trackNames = new HashMap<>();
+        private final BitSet liveTracks = new BitSet();
+        private final Map<Long, Postings> trackTrigrams = new HashMap<>();
+        private final Map<Integer, Postings> trackPlaylists = new HashMap<>();
+
+        private void addTracks(ItunesPlaylist playlist, int ordinal) {
+            for (Object item : playlist.getTrackIDs()) {
+                int trackId = (Integer) item;
+                String trackName = normalize(trackNameById.apply(trackId));
+                if (! trackName.equals(trackNames.put(trackId, trackName)))
+                    addTrigrams(trackTrigrams, trackName, trackId);
+                liveTracks.set(trackId);
+                trackPlaylists.computeIfAbsent(trackId, id -> new Postings()).add(ordinal);
+            }
+        }
+
+        private void removeTrack(int trackId) {
+            trackNames.remove(trackId);
+            liveTracks.clear(trackId);
+        }
+    }
+
+    /**
+     * Growable list of the ids that contain a trigram, or of the playlists of a track
+     */
+    private static class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size > 0 && ids[size - 1] == id)
+                return;
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        private void forEach(IntConsumer action) {
+            for (int i = 0; i < size; i++)
+                action.accept(ids[i]);
+        }
+    }
+}
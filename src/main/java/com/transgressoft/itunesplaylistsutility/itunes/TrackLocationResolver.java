@@ -0,0 +1,103 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.ItunesTrack;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the file {@link Path} of an {@link ItunesTrack} from its {@code file://} location.
+ *
+ * <p>The resolved path of each track is cached by track id, so a track that belongs to
+ * several playlists is decoded only once. The directories are interned by their
+ * encoded location prefix, so the long {@code iTunes Media/Music/Artist/Album/} part,
+ * shared by all the tracks of an album, is parsed once and only the file name of
+ * each track is decoded.</p>
+ *
+ * @author Octavio Calleya
+ */
+class TrackLocationResolver {
+
+    private final Map<Integer, Path> pathsByTrackId = new ConcurrentHashMap<>();
+    private final Map<String, Path> directoriesByPrefix = new ConcurrentHashMap<>();
+
+    Path resolve(ItunesTrack itunesTrack) {
+        return pathsByTrackId.computeIfAbsent(itunesTrack.getTrackID(), id -> decode(itunesTrack.getLocation()));
+    }
+
+    void forget(int trackId) {
+        pathsByTrackId.remove(trackId);
+    }
+
+    int cachedTracks() {
+        return pathsByTrackId.size();
+    }
+
+    int cachedDirectories() {
+        return directoriesByPrefix.size();
+    }
+
+    /**
+     * Decodes a location without caching its path, only its directory
+     */
+    Path decode(String location) {
+        int separatorPosition = location.lastIndexOf('/');
+        if (separatorPosition < 0 || separatorPosition == location.length() - 1)
+            return Paths.get(URI.create(location));
+
+        String directoryPrefix = location.substring(0, separatorPosition + 1);
+        Path directory = directoriesByPrefix.computeIfAbsent(directoryPrefix, prefix -> Paths.get(URI.create(prefix)));
+        return directory.resolve(percentDecode(location.substring(separatorPosition + 1)));
+    }
+
+    /**
+     * Decodes the escaped octets of an URI path segment as UTF-8. Unlike
+     * {@link java.net.URLDecoder}, the '+' character is kept as is.
+     *
+     * @param segment The encoded path segment
+     *
+     * @return The decoded string
+     */
+    private static String percentDecode(String segment) {
+        if (segment.indexOf('%') < 0)
+            return segment;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            int codePoint = segment.codePointAt(i);
+            if (codePoint == '%' && i + 2 < segment.length()) {
+                bytes.write(Integer.parseInt(segment.substring(i + 1, i + 3), 16));
+                i += 2;
+            }
+            else {
+                byte[] charBytes = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                bytes.write(charBytes, 0, charBytes.length);
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.ItunesLibrary;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+
+/**
+ * Where the tracks of the imported library are kept.
+ *
+ * <p>Configured with the {@code itunes.library.track-storage} property.</p>
+ *
+ * @author Octavio Calleya
+ */
+public enum TrackStorage {
+
+    /**
+     * The track objects of the parsed library, on the heap. They are moved out of the
+     * library to the table, so they can only be modified by replacing the table.
+     */
+    HEAP {
+        @Override
+        TrackTable createTable(ItunesLibrary itunesLibrary, TrackLocationResolver locationResolver) {
+            TrackTable trackTable = new HeapTrackTable(new HashMap<>(itunesLibrary.getTracks()), locationResolver);
+            itunesLibrary.getTracks().clear();
+            return trackTable;
+        }
+    },
+
+    /**
+     * A memory-mapped file in the temporary directory, out of the heap. The track objects
+     * of the parsed library are discarded once written to it, so the heap used does not
+     * depend on the size of the library.
+     */
+    MAPPED {
+        @Override
+        TrackTable createTable(ItunesLibrary itunesLibrary, TrackLocationResolver locationResolver) throws IOException {
+            Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+            TrackTable trackTable = MappedTrackTable.write(itunesLibrary.getTracks(), directory, locationResolver);
+            itunesLibrary.getTracks().clear();
+            return trackTable;
+        }
+    };
+
+    /**
+     * Creates the table with the tracks of the library just parsed
+     *
+     * @param itunesLibrary    The library
+     * @param locationResolver The resolver of the paths of the tracks
+     *
+     * @return The table
+     *
+     * @throws IOException If the table could not be written
+     */
+    abstract TrackTable createTable(ItunesLibrary itunesLibrary, TrackLocationResolver locationResolver) throws IOException;
+}
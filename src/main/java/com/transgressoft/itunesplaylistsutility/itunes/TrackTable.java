@@ -0,0 +1,93 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * The tracks of the loaded library, looked up by track id. The playlists keep only the
+ * ids of their tracks, and everything else that is needed about a track is read from
+ * the table, so it can be kept on the heap or out of it depending on the {@link TrackStorage}.
+ *
+ * @author Octavio Calleya
+ */
+interface TrackTable {
+
+    boolean contains(int trackId);
+
+    long getSize(int trackId);
+
+    /**
+     * @return The type of the track, such as {@code File}, {@code URL} or {@code Remote}
+     */
+    String getTrackType(int trackId);
+
+    String getName(int trackId);
+
+    /**
+     * @return The path of the file of the track
+     */
+    Path getPath(int trackId);
+
+    /**
+     * Sums the size of the given tracks, ignoring those that are not in the table
+     *
+     * @param trackIds The ids of the tracks, as kept by an {@link ItunesPlaylist}
+     *
+     * @return The total size in bytes
+     */
+    default long getTotalSize(List<?> trackIds) {
+        long totalSize = 0;
+        for (int i = 0; i < trackIds.size(); i++) {
+            int trackId = (Integer) trackIds.get(i);
+            if (contains(trackId))
+                totalSize += getSize(trackId);
+        }
+        return totalSize;
+    }
+
+    void forEachTrackId(IntConsumer action);
+
+    /**
+     * @param trackId  The id of a track of the table
+     * @param reloaded The same track in a new version of the library
+     *
+     * @return Whether the reloaded track differs from the one in the table
+     */
+    boolean isChanged(int trackId, ItunesTrack reloaded);
+
+    /**
+     * Applies the track changes of a re-import of the library to a new table, leaving this
+     * one untouched, since it may still be read from other threads until the new one is published
+     *
+     * @param libraryDiff The differences with the reloaded library
+     * @param reloaded    The new version of the library, which is discarded afterwards
+     *
+     * @return The new table with the tracks of the reloaded library
+     *
+     * @throws IOException If the new table could not be written
+     */
+    TrackTable merge(ItunesLibraryDiff libraryDiff, ItunesLibrary reloaded) throws IOException;
+}
@@ -0,0 +1,173 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.util;
+
+import com.transgressoft.itunesplaylistsutility.util.CopyLogRecord.Event;
+import org.slf4j.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logger of the per-file events of a copy that keeps the formatting and writing of
+ * the log out of the copy threads. The records are put in a bounded lock-free queue
+ * and written by a background thread. When the queue is full, the configured
+ * {@link OverflowPolicy} decides what to do with the new record.
+ *
+ * <p>Configured with the {@code itunes.copy-log.queue-capacity} and
+ * {@code itunes.copy-log.overflow-policy} properties.</p>
+ *
+ * @author Octavio Calleya
+ */
+@Component
+public class AsyncCopyLogger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncCopyLogger.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public enum OverflowPolicy {
+
+        /**
+         * The record is discarded and counted as dropped
+         */
+        DROP,
+
+        /**
+         * The calling thread waits until there is space in the queue
+         */
+        BLOCK,
+
+        /**
+         * The record is written synchronously on the calling thread
+         */
+        CALLER_WRITES
+    }
+
+    private final BoundedLogQueue<CopyLogRecord> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean writerIdle;
+    private volatile boolean running = true;
+
+    public AsyncCopyLogger(@Value("${itunes.copy-log.queue-capacity:8192}") int queueCapacity,
+                           @Value("${itunes.copy-log.overflow-policy:DROP}") OverflowPolicy overflowPolicy) {
+        this.queue = new BoundedLogQueue<>(queueCapacity);
+        this.overflowPolicy = overflowPolicy;
+        writerThread = new Thread(this::writeRecords, "copy-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void fileCopied(Path source, Path target) {
+        log(new CopyLogRecord(Event.FILE_COPIED, source, target, null));
+    }
+
+    public void fileFailed(Path source, Path target, Throwable failure) {
+        log(new CopyLogRecord(Event.FILE_FAILED, source, target, failure));
+    }
+
+    public void directoryFailed(Path directory) {
+        log(new CopyLogRecord(Event.DIRECTORY_FAILED, null, directory, null));
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    private void log(CopyLogRecord record) {
+        if (queue.offer(record)) {
+            if (writerIdle)
+                LockSupport.unpark(writerThread);
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case DROP:
+                droppedRecords.incrementAndGet();
+                break;
+            case BLOCK:
+                while (running && ! queue.offer(record)) {
+                    LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                }
+                break;
+            case CALLER_WRITES:
+                write(record);
+                break;
+        }
+    }
+
+    private void writeRecords() {
+        long reportedDroppedRecords = 0;
+        while (running) {
+            CopyLogRecord record = queue.poll();
+            if (record != null)
+                write(record);
+            else {
+                long dropped = droppedRecords.get();
+                if (dropped > reportedDroppedRecords) {
+                    LOG.warn("{} copy log records dropped because the queue was full", dropped - reportedDroppedRecords);
+                    reportedDroppedRecords = dropped;
+                }
+                writerIdle = true;
+                CopyLogRecord lateRecord = queue.poll();
+                if (lateRecord == null)
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                else
+                    write(lateRecord);
+                writerIdle = false;
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        CopyLogRecord record;
+        while ((record = queue.poll()) != null)
+            write(record);
+    }
+
+    private void write(CopyLogRecord record) {
+        switch (record.getEvent()) {
+            case FILE_COPIED:
+                LOG.info("File copied: {} -> {}", record.getSource(), record.getTarget());
+                break;
+            case FILE_FAILED:
+                LOG.info("Error copying file {} -> {}: {}", record.getSource(), record.getTarget(), record.getFailure());
+                break;
+            case DIRECTORY_FAILED:
+                LOG.info("Unable to create directory {}", record.getTarget());
+                break;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.util;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Bounded lock-free queue backed by a ring buffer, after the array queue of Dmitry Vyukov.
+ * Every slot has a sequence number that tells producers and consumers whether the slot
+ * is free to write or ready to read, so both sides only need a compare-and-set on
+ * their own position and never wait for each other.
+ *
+ * @param <E> The type of the elements of the queue
+ *
+ * @author Octavio Calleya
+ */
+class BoundedLogQueue<E> {
+
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    /**
+     * @param capacity The maximum number of elements, rounded up to the next power of two
+     */
+    BoundedLogQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    /**
+     * Inserts the element if there is space for it
+     *
+     * @param element The element to insert
+     *
+     * @return {@code true} if the element was inserted, {@code false} if the queue is full
+     */
+    boolean offer(E element) {
+        long position = enqueuePosition.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1))
+                    break;
+                position = enqueuePosition.get();
+            }
+            else if (difference < 0)
+                return false;
+            else
+                position = enqueuePosition.get();
+        }
+        elements.lazySet(index, element);
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Retrieves and removes the oldest element of the queue
+     *
+     * @return The element, or {@code null} if the queue is empty
+     */
+    E poll() {
+        long position = dequeuePosition.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1))
+                    break;
+                position = dequeuePosition.get();
+            }
+            else if (difference < 0)
+                return null;
+            else
+                position = dequeuePosition.get();
+        }
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.set(index, position + mask + 1);
+        return element;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Predicate;
+
+/**
+ * {@link Flow.Publisher} that never makes the producing thread wait for its subscribers.
+ * Each subscriber has a bounded buffer, and its items are delivered on the given executor
+ * only as they are requested. When the buffer of a slow subscriber is full the new item
+ * is dropped for that subscriber, unless it is one that must not be dropped. Those items
+ * can take up to as many places again beyond the capacity, so a subscriber never holds
+ * more than twice the capacity: past that limit they are dropped as well. The dropped
+ * items are counted, and a summary of them should be carried by the last item.
+ *
+ * <p>The last item published before closing is kept apart from the buffers, so that it
+ * always reaches the subscribers, also those that subscribe after the publisher was closed.</p>
+ *
+ * @author Octavio Calleya
+ */
+public class BufferedPublisher<T> implements Flow.Publisher<T> {
+
+    private final Executor executor;
+    private final int bufferCapacity;
+    private final Predicate<T> isDroppable;
+    private final List<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong droppedItems = new AtomicLong();
+    private volatile boolean closed;
+    private volatile T lastItem;
+    private volatile Throwable failure;
+
+    /**
+     * @param executor       The executor where the items are delivered to the subscribers
+     * @param bufferCapacity The number of items waiting to be delivered to each subscriber from which
+     *                       the droppable ones are dropped, and half of the maximum for the rest
+     * @param isDroppable    Whether an item can be dropped as soon as the buffer of a subscriber is full
+     */
+    public BufferedPublisher(Executor executor, int bufferCapacity, Predicate<T> isDroppable) {
+        this.executor = executor;
+        this.bufferCapacity = bufferCapacity;
+        this.isDroppable = isDroppable;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        BufferedSubscription subscription = new BufferedSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscriptions.add(subscription);
+        if (closed) {
+            subscriptions.remove(subscription);
+            subscription.close(lastItem, failure);
+        }
+    }
+
+    public void submit(T item) {
+        for (BufferedSubscription subscription : subscriptions)
+            subscription.offer(item);
+    }
+
+    /**
+     * Publishes the last item and completes the subscriptions once it is delivered
+     */
+    public void close(T lastItem) {
+        closeWith(lastItem, null);
+    }
+
+    public void closeExceptionally(Throwable failure) {
+        closeWith(null, failure);
+    }
+
+    private synchronized void closeWith(T lastItem, Throwable failure) {
+        if (closed)
+            return;
+        this.lastItem = lastItem;
+        this.failure = failure;
+        closed = true;
+        for (BufferedSubscription subscription : subscriptions)
+            subscription.close(lastItem, failure);
+        subscriptions.clear();
+    }
+
+    public long getDroppedItems() {
+        return droppedItems.get();
+    }
+
+    public int getNumberOfSubscribers() {
+        return subscriptions.size();
+    }
+
+    private class BufferedSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Deque<T> buffer = new ArrayDeque<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean cancelled;
+        private T lastItem;
+        private Throwable failure;
+        private boolean closed;
+        private boolean terminated;
+
+        private BufferedSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void offer(T item) {
+            synchronized (this) {
+                if (buffer.size() < bufferCapacity || buffer.size() < 2 * bufferCapacity && ! isDroppable.test(item))
+                    buffer.add(item);
+                else {
+                    droppedItems.incrementAndGet();
+                    return;
+                }
+            }
+            drain();
+        }
+
+        private void close(T lastItem, Throwable failure) {
+            synchronized (this) {
+                if (closed)
+                    return;
+                this.lastItem = lastItem;
+                this.failure = failure;
+                closed = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                synchronized (this) {
+                    failure = new IllegalArgumentException("The number of requested items must be positive: " + n);
+                    buffer.clear();
+                    lastItem = null;
+                    closed = true;
+                }
+            }
+            else
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void drain() {
+            if (pendingDrains.getAndIncrement() == 0)
+                executor.execute(this);
+        }
+
+        /**
+         * Delivers the buffered items while there is demand. Only one thread at a time runs
+         * it, so the subscriber is signalled serially, and it loops again if more items or
+         * requests arrived meanwhile.
+         */
+        @Override
+        public void run() {
+            int drains = pendingDrains.get();
+            while (true) {
+                deliver();
+                drains = pendingDrains.addAndGet(- drains);
+                if (drains == 0)
+                    return;
+            }
+        }
+
+        private void deliver() {
+            while (! cancelled && ! terminated) {
+                T item = null;
+                boolean complete = false;
+                synchronized (this) {
+                    if (demand.get() > 0 && ! buffer.isEmpty())
+                        item = buffer.poll();
+                    else if (buffer.isEmpty() && closed) {
+                        if (lastItem != null && failure == null && demand.get() > 0) {
+                            item = lastItem;
+                            lastItem = null;
+                        }
+                        else if (lastItem == null)
+                            complete = true;
+                    }
+                }
+                if (item != null) {
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(item);
+                    }
+                    catch (Throwable throwable) {
+                        cancel();
+                        subscriber.onError(throwable);
+                    }
+                }
+                else if (complete) {
+                    terminated = true;
+                    if (failure != null)
+                        subscriber.onError(failure);
+                    else
+                        subscriber.onComplete();
+                }
+                else
+                    return;
+            }
+        }
+    }
+}
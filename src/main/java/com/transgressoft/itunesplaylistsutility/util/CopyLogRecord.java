@@ -0,0 +1,69 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.util;
+
+import java.nio.file.Path;
+
+/**
+ * Log entry of a file processed during a copy. Its fields are kept as is
+ * and only formatted when the record is written by the {@link AsyncCopyLogger}.
+ *
+ * @author Octavio Calleya
+ */
+public class CopyLogRecord {
+
+    public enum Event {
+        FILE_COPIED, FILE_FAILED, DIRECTORY_FAILED
+    }
+
+    private final long timestamp;
+    private final Event event;
+    private final Path source;
+    private final Path target;
+    private final Throwable failure;
+
+    CopyLogRecord(Event event, Path source, Path target, Throwable failure) {
+        this.timestamp = System.currentTimeMillis();
+        this.event = event;
+        this.source = source;
+        this.target = target;
+        this.failure = failure;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.util;
+
+/**
+ * Interfaces of reactive streams with backpressure, with the same contract as the ones
+ * of {@code java.util.concurrent.Flow}, which is not available in Java 8. Once the
+ * application moves to Java 9 or later, these can be replaced by the standard ones.
+ *
+ * @author Octavio Calleya
+ */
+public final class Flow {
+
+    private Flow() {}
+
+    /**
+     * Producer of items that are received by its subscribers
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of the items of a {@link Publisher}. Its methods are invoked serially,
+     * and {@link #onNext} only as many times as items were requested.
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Link between a {@link Publisher} and one of its {@link Subscriber}s
+     */
+    public interface Subscription {
+
+        /**
+         * Adds the given number of items to the demand of the subscriber
+         *
+         * @param n The number of items, a positive number
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
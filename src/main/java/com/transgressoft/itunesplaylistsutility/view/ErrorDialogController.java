@@ -29,6 +29,7 @@ import javafx.scene.layout.*;
 import javafx.stage.*;
 import org.slf4j.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 
 import java.io.*;
 
@@ -39,14 +40,15 @@ import java.io.*;
  *
  * @author Octavio Calleya
  */
+@Lazy
 @FXMLController
 public class ErrorDialogController implements ErrorDialog {
 
     private final Logger LOG = LoggerFactory.getLogger(getClass().getName());
-    private final Image COMMON_ERROR_IMAGE = new Image(getClass().getResourceAsStream("/images/common-error.png"));
     private final ErrorDialogDecorator DECORATOR = new ErrorDialogController.SimpleErrorDialogDecorator(this);
 
     private ErrorDialogView errorDialogView;
+    private Image commonErrorImage;
 
     @FXML
     private BorderPane rootBorderPane;
@@ -190,7 +192,7 @@ public class ErrorDialogController implements ErrorDialog {
 
     @Override
     public ErrorDialogDecorator withImage(Image image) {
-        if (! COMMON_ERROR_IMAGE.equals(image))
+        if (! getCommonErrorImage().equals(image))
             errorImageView.setImage(image);
         return DECORATOR;
     }
@@ -213,7 +215,13 @@ public class ErrorDialogController implements ErrorDialog {
         messageVBox.getChildren().remove(reportHyperlink);
         removeDetailsArea();
         removeExpandableButtons();
-        errorImageView.setImage(COMMON_ERROR_IMAGE);
+        errorImageView.setImage(getCommonErrorImage());
+    }
+
+    private Image getCommonErrorImage() {
+        if (commonErrorImage == null)
+            commonErrorImage = new Image(getClass().getResourceAsStream("/images/common-error.png"));
+        return commonErrorImage;
     }
 
     public String getErrorTitle() {
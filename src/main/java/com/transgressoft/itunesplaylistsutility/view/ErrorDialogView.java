@@ -23,13 +23,20 @@ import com.transgressoft.commons.view.*;
 import de.felixroske.jfxsupport.*;
 import javafx.event.*;
 import javafx.scene.image.Image;
+import org.springframework.context.annotation.Lazy;
 
 /**
  * @author Octavio Calleya
  * @version 1.0
  */
+@Lazy
 @FXMLView (value = "/view/ErrorDialogView.fxml", title = "Error", stageStyle = "DECORATED")
-public class ErrorDialogView extends AbstractFxmlView {
+public class ErrorDialogView extends AbstractFxmlView implements ErrorView {
+
+    @Override
+    public void showError(String title, Throwable exception) {
+        withTitle(title).withException(exception).show();
+    }
 
     public ErrorDialogDecorator withTitle(String s) {
         return ((ErrorDialog) getPresenter()).withTitle(s);
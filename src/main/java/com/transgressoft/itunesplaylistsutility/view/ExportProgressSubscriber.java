@@ -0,0 +1,135 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.view;
+
+import com.transgressoft.itunesplaylistsutility.itunes.ExportEvent;
+import com.transgressoft.itunesplaylistsutility.util.Flow;
+import javafx.application.Platform;
+
+/**
+ * Shows the events of an export on the {@link MainView}, with the counts of each destination
+ * when the export copies to several of them. The events received are accumulated and shown
+ * together on the JavaFX thread, and more events are requested only after those are shown,
+ * so the window is never flooded by a fast copy.
+ *
+ * @author Octavio Calleya
+ */
+class ExportProgressSubscriber implements Flow.Subscriber<ExportEvent> {
+
+    private static final int REQUESTED_EVENTS = 256;
+
+    private final MainViewController mainViewController;
+    private final StringBuilder pendingLog = new StringBuilder();
+    private Flow.Subscription subscription;
+    private double pendingProgress = - 1;
+    private int pendingEvents;
+    private boolean updateScheduled;
+    private boolean finished;
+
+    ExportProgressSubscriber(MainViewController mainViewController) {
+        this.mainViewController = mainViewController;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(REQUESTED_EVENTS);
+    }
+
+    @Override
+    public void onNext(ExportEvent event) {
+        synchronized (this) {
+            switch (event.getType()) {
+                case PLANNED:
+                    pendingProgress = 0;
+                    break;
+                case FILE_COPIED:
+                    pendingLog.append("File copied: ").append(event.getSource().getFileName())
+                            .append(" to ").append(event.getDestination()).append('\n');
+                    break;
+                case FILE_FAILED:
+                    if (event.getSource() == null)
+                        pendingLog.append("Unable to create directory ").append(event.getTarget()).append('\n');
+                    else
+                        pendingLog.append("Error copying file ").append(event.getSource().getFileName())
+                                .append(" to ").append(event.getTarget().getParent()).append('\n');
+                    break;
+                case PROGRESS:
+                    pendingProgress = event.getProgress();
+                    break;
+                case COMPLETED:
+                    pendingLog.append(event.isCancelled() ? "Copy cancelled. " : "Copy finished. ")
+                            .append("Copied ").append(event.getCopiedFiles()).append(" files, ")
+                            .append(event.getFailedFiles()).append(" failed\n");
+                    if (event.getDestinationCounts().size() > 1)
+                        for (ExportEvent.DestinationCounts destinationCounts : event.getDestinationCounts())
+                            pendingLog.append("  ").append(destinationCounts.getDestination()).append(": copied ")
+                                    .append(destinationCounts.getCopiedFiles()).append(" files, ")
+                                    .append(destinationCounts.getFailedFiles()).append(" failed\n");
+                    pendingProgress = event.getProgress();
+                    finished = true;
+                    break;
+                default:
+                    break;
+            }
+            pendingEvents++;
+            if (updateScheduled)
+                return;
+            updateScheduled = true;
+        }
+        Platform.runLater(this::updateView);
+    }
+
+    private void updateView() {
+        String log;
+        double progress;
+        int shownEvents;
+        boolean exportFinished;
+        synchronized (this) {
+            log = pendingLog.toString();
+            pendingLog.setLength(0);
+            progress = pendingProgress;
+            shownEvents = pendingEvents;
+            pendingEvents = 0;
+            exportFinished = finished;
+            updateScheduled = false;
+        }
+        if (! log.isEmpty())
+            mainViewController.log(log);
+        if (progress >= 0)
+            mainViewController.updateProgress(progress);
+        if (exportFinished)
+            mainViewController.exportFinished();
+        else
+            subscription.request(shownEvents);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Platform.runLater(() -> {
+            mainViewController.log("Error copying the playlists: " + throwable.getMessage() + "\n");
+            mainViewController.exportFinished();
+        });
+    }
+
+    @Override
+    public void onComplete() {
+    }
+}
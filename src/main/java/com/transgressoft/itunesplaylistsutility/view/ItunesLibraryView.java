@@ -0,0 +1,40 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.view;
+
+import com.transgressoft.itunesplaylistsutility.itunes.*;
+import com.worldsworstsoftware.itunes.ItunesPlaylist;
+
+import java.util.List;
+
+/**
+ * View that shows the playlists of the imported iTunes library. The methods
+ * can be called from any thread.
+ *
+ * @author Octavio Calleya
+ */
+public interface ItunesLibraryView {
+
+    void setItunesPlaylists(List<ItunesPlaylist> itunesPlaylists);
+
+    void setPlaylistSearchIndex(PlaylistSearchIndex playlistSearchIndex);
+
+    void applyItunesLibraryDiff(ItunesLibraryDiff itunesLibraryDiff);
+}
@@ -19,6 +19,7 @@
 
 package com.transgressoft.itunesplaylistsutility.view;
 
+import com.transgressoft.itunesplaylistsutility.itunes.*;
 import com.worldsworstsoftware.itunes.ItunesPlaylist;
 import de.felixroske.jfxsupport.*;
 import javafx.application.Platform;
@@ -29,17 +30,20 @@ import java.util.List;
  * @author Octavio Calleya
  */
 @FXMLView(value = "/view/MainView.fxml", title = "Itunes Playlists Copier", stageStyle = "DECORATED")
-public class MainView extends AbstractFxmlView {
+public class MainView extends AbstractFxmlView implements ItunesLibraryView {
 
-    public void updateProgress(double progress) {
-        Platform.runLater(() -> ((MainViewController) getPresenter()).updateProgress(progress));
+    @Override
+    public void setItunesPlaylists(List<ItunesPlaylist> itunesPlaylists) {
+        Platform.runLater(() -> ((MainViewController) getPresenter()).setItunesPlaylists(itunesPlaylists));
     }
 
-    public void log(String message) {
-        ((MainViewController) getPresenter()).log(message);
+    @Override
+    public void setPlaylistSearchIndex(PlaylistSearchIndex playlistSearchIndex) {
+        Platform.runLater(() -> ((MainViewController) getPresenter()).setPlaylistSearchIndex(playlistSearchIndex));
     }
 
-    public void setItunesPlaylists(List<ItunesPlaylist> itunesPlaylists) {
-        Platform.runLater(() -> ((MainViewController) getPresenter()).setItunesPlaylists(itunesPlaylists));
+    @Override
+    public void applyItunesLibraryDiff(ItunesLibraryDiff itunesLibraryDiff) {
+        Platform.runLater(() -> ((MainViewController) getPresenter()).applyItunesLibraryDiff(itunesLibraryDiff));
     }
 }
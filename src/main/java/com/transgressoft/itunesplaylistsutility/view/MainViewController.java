@@ -19,11 +19,12 @@
 
 package com.transgressoft.itunesplaylistsutility.view;
 
-import com.transgressoft.itunesplaylistsutility.itunes.ItunesService;
+import com.transgressoft.itunesplaylistsutility.itunes.*;
 import com.transgressoft.itunesplaylistsutility.view.custom.ItunesPlaylistListCell;
 import com.worldsworstsoftware.itunes.ItunesPlaylist;
 import de.felixroske.jfxsupport.FXMLController;
-import javafx.collections.*;
+import javafx.application.Platform;
+import javafx.collections.transformation.FilteredList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
@@ -35,6 +36,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * @author Octavio Calleya
@@ -50,6 +53,10 @@ public class MainViewController {
     @Autowired
     private ItunesService itunesService;
 
+    @FXML
+    private TextField searchTextField;
+    @FXML
+    private CheckBox searchTrackNamesCheckBox;
     @FXML
     private ListView<ItunesPlaylist> sourcePlaylists;
     @FXML
@@ -63,6 +70,8 @@ public class MainViewController {
     @FXML
     private Button selectTargetDirectoryButton;
     @FXML
+    private Button addTargetDirectoryButton;
+    @FXML
     private Button copyButton;
     @FXML
     private ProgressBar progressBar;
@@ -85,14 +94,29 @@ public class MainViewController {
     @FXML
     private Button closeButton;
 
-    private File targetDirectoryFile;
+    private final List<File> targetDirectoryFiles = new ArrayList<>();
+    private final PlaylistTransferModel transferModel = new PlaylistTransferModel(Comparator.comparing(ItunesPlaylist::getName));
+    private final FilteredList<ItunesPlaylist> filteredSourceItems = new FilteredList<>(transferModel.getSourcePlaylists());
+    private final FilteredList<ItunesPlaylist> filteredTargetItems = new FilteredList<>(transferModel.getTargetPlaylists());
+    private PlaylistSearchIndex playlistSearchIndex;
+    private boolean trackNamesIndexRequested;
+    private ExportJob exportJob;
 
     @FXML
     public void initialize() {
-        addSelectedButton.setOnAction(e -> moveSelected(sourcePlaylists, targetPlaylists));
-        removeSelectedButton.setOnAction(e -> moveSelected(targetPlaylists, sourcePlaylists));
-        addAllButton.setOnAction(e -> moveAll(sourcePlaylists, targetPlaylists));
-        removeAllButton.setOnAction(e -> moveAll(targetPlaylists, sourcePlaylists));
+        addSelectedButton.setOnAction(e -> transferModel.moveToTarget(selectedPlaylists(sourcePlaylists)));
+        removeSelectedButton.setOnAction(e -> transferModel.moveToSource(selectedPlaylists(targetPlaylists)));
+        // Only the playlists shown are moved, so when a list is filtered the ones that do not match stay
+        addAllButton.setOnAction(e -> transferModel.moveToTarget(new ArrayList<>(sourcePlaylists.getItems())));
+        removeAllButton.setOnAction(e -> transferModel.moveToSource(new ArrayList<>(targetPlaylists.getItems())));
+        sourcePlaylists.setItems(filteredSourceItems);
+        targetPlaylists.setItems(filteredTargetItems);
+        searchTextField.textProperty().addListener((obs, oldText, newText) -> filterPlaylists());
+        searchTrackNamesCheckBox.selectedProperty().addListener((obs, oldValue, newValue) -> {
+            if (newValue)
+                indexTrackNames();
+            filterPlaylists();
+        });
         sourcePlaylists.setCellFactory(cell -> new ItunesPlaylistListCell(this));
         sourcePlaylists.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         targetPlaylists.setCellFactory(cell -> new ItunesPlaylistListCell(this));
@@ -106,14 +130,12 @@ public class MainViewController {
         closeButton.setOnAction(e -> mainView.hide());
         chooseFileButton.setOnAction(this::chooseFile);
         selectTargetDirectoryButton.setOnAction(this::selectTargetDirectory);
+        addTargetDirectoryButton.setOnAction(this::addTargetDirectory);
         copyButton.setOnAction(e -> {
-            if (copyButton.getText().equals("Copy")) {
-                itunesService.copyItunesPlaylists(targetPlaylists.getItems(), targetDirectoryFile);
-                copyButton.setText("Cancel");
-            } else {
-                itunesService.cancelImport();
-                copyButton.setText("Copy");
-            }
+            if (copyButton.getText().equals("Copy"))
+                startExport();
+            else
+                exportJob.cancel();
         });
 
         bottomSectionBorderPane.getChildren().remove(logTextArea);
@@ -121,42 +143,80 @@ public class MainViewController {
         showLogHyperlink.setOnAction(this::handleShowLog);
     }
 
-    private void moveSelected(ListView<ItunesPlaylist> from, ListView<ItunesPlaylist> to) {
-        ObservableList<ItunesPlaylist> selectedItems = from.getSelectionModel().getSelectedItems();
-        to.getItems().addAll(selectedItems);
-        from.getItems().removeAll(selectedItems);
-        FXCollections.sort(to.getItems(), Comparator.comparing(ItunesPlaylist::getName));
+    private List<ItunesPlaylist> selectedPlaylists(ListView<ItunesPlaylist> listView) {
+        return new ArrayList<>(listView.getSelectionModel().getSelectedItems());
     }
 
-    private void moveAll(ListView<ItunesPlaylist> from, ListView<ItunesPlaylist> to) {
-        to.getItems().addAll(from.getItems());
-        from.getItems().clear();
-        FXCollections.sort(to.getItems(), Comparator.comparing(ItunesPlaylist::getName));
+    public void movePlaylist(ItunesPlaylist playlist) {
+        if (transferModel.isInSource(playlist))
+            transferModel.moveToTarget(Collections.singletonList(playlist));
+        else if (transferModel.isInTarget(playlist))
+            transferModel.moveToSource(Collections.singletonList(playlist));
     }
 
-    public void movePlaylist(ItunesPlaylist playlist) {
-        if (sourcePlaylists.getItems().contains(playlist)) {
-            targetPlaylists.getItems().add(playlist);
-            sourcePlaylists.getItems().remove(playlist);
-            FXCollections.sort(targetPlaylists.getItems(), Comparator.comparing(ItunesPlaylist::getName));
-        } else if (targetPlaylists.getItems().contains(playlist)) {
-            sourcePlaylists.getItems().add(playlist);
-            targetPlaylists.getItems().remove(playlist);
-            FXCollections.sort(sourcePlaylists.getItems(), Comparator.comparing(ItunesPlaylist::getName));
+    public long getTotalSize(ItunesPlaylist playlist) {
+        return itunesService.getTotalSize(playlist);
+    }
+
+    /**
+     * Filters both lists with the playlists that match the text of the search box, looked up
+     * in the {@link PlaylistSearchIndex}, so no playlist is scanned while the user types.
+     */
+    private void filterPlaylists() {
+        String query = searchTextField.getText();
+        if (playlistSearchIndex == null || query == null || query.trim().isEmpty()) {
+            filteredSourceItems.setPredicate(null);
+            filteredTargetItems.setPredicate(null);
         }
+        else {
+            Set<ItunesPlaylist> matchingPlaylists = playlistSearchIndex.search(query, searchTrackNamesCheckBox.isSelected());
+            filteredSourceItems.setPredicate(matchingPlaylists::contains);
+            filteredTargetItems.setPredicate(matchingPlaylists::contains);
+        }
+    }
+
+    private void startExport() {
+        List<ExportDestination> destinations = targetDirectoryFiles.stream()
+                .map(file -> itunesService.exportDestination(file.toPath()))
+                .collect(Collectors.toList());
+        exportJob = itunesService.exportPlaylists(new ArrayList<>(transferModel.getTargetPlaylists()), destinations);
+        exportJob.getEvents().subscribe(new ExportProgressSubscriber(this));
+        exportJob.start();
+        copyButton.setText("Cancel");
+    }
+
+    void exportFinished() {
+        exportJob = null;
+        copyButton.setText("Copy");
     }
 
     private void selectTargetDirectory(ActionEvent e) {
         LOG.debug("Choosing target directory");
-        DirectoryChooser chooser = new DirectoryChooser();
-        chooser.setTitle("Select target directory");
-        targetDirectoryFile = chooser.showDialog(mainView.getView().getScene().getWindow());
+        File targetDirectoryFile = chooseTargetDirectory();
         if (targetDirectoryFile != null) {
+            targetDirectoryFiles.clear();
+            targetDirectoryFiles.add(targetDirectoryFile);
             targetPathLabel.setText(targetDirectoryFile.getAbsolutePath());
+            addTargetDirectoryButton.setDisable(false);
             copyButton.setDisable(false);
         }
     }
 
+    private void addTargetDirectory(ActionEvent e) {
+        LOG.debug("Adding target directory");
+        File targetDirectoryFile = chooseTargetDirectory();
+        if (targetDirectoryFile != null && ! targetDirectoryFiles.contains(targetDirectoryFile)) {
+            targetDirectoryFiles.add(targetDirectoryFile);
+            targetPathLabel.setText(targetPathLabel.getText() + "; " + targetDirectoryFile.getAbsolutePath());
+        }
+    }
+
+    private File chooseTargetDirectory() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Select target directory");
+        return chooser.showDialog(mainView.getView().getScene().getWindow());
+    }
+
     private void chooseFile(ActionEvent e) {
         LOG.debug("Choosing Itunes xml file");
         FileChooser chooser = new FileChooser();
@@ -193,7 +253,63 @@ public class MainViewController {
     }
 
     public void setItunesPlaylists(List<ItunesPlaylist> itunesPlaylists) {
-        sourcePlaylists.setItems(FXCollections.observableArrayList(itunesPlaylists));
+        transferModel.setPlaylists(itunesPlaylists);
+        filterPlaylists();
         progressBar.setProgress(0);
     }
+
+    public void setPlaylistSearchIndex(PlaylistSearchIndex playlistSearchIndex) {
+        this.playlistSearchIndex = playlistSearchIndex;
+        trackNamesIndexRequested = false;
+        if (searchTrackNamesCheckBox.isSelected())
+            indexTrackNames();
+    }
+
+    /**
+     * Indexes the names of the tracks in the background, so the first search in them does not
+     * freeze the window, and filters the playlists again once they are indexed. Until then
+     * only the names of the playlists are searched.
+     */
+    private void indexTrackNames() {
+        PlaylistSearchIndex searchIndex = playlistSearchIndex;
+        if (searchIndex == null || trackNamesIndexRequested || searchIndex.isTrackNamesIndexed())
+            return;
+        trackNamesIndexRequested = true;
+        CompletableFuture.runAsync(searchIndex::indexTrackNames).whenComplete((result, exception) -> {
+            if (exception != null)
+                LOG.error("Error indexing the names of the tracks", exception);
+            else
+                Platform.runLater(() -> {
+                    if (searchIndex == playlistSearchIndex)
+                        filterPlaylists();
+                });
+        });
+    }
+
+    /**
+     * Updates only the playlists affected by a change in the iTunes library, keeping them
+     * on the list where they were, and keeping the selected ones selected.
+     *
+     * @param itunesLibraryDiff The differences with the previously loaded library
+     */
+    public void applyItunesLibraryDiff(ItunesLibraryDiff itunesLibraryDiff) {
+        List<ItunesPlaylist> selectedSourcePlaylists = new ArrayList<>(sourcePlaylists.getSelectionModel().getSelectedItems());
+        List<ItunesPlaylist> selectedTargetPlaylists = new ArrayList<>(targetPlaylists.getSelectionModel().getSelectedItems());
+        transferModel.update(itunesLibraryDiff.getRemovedPlaylists(), itunesLibraryDiff.getChangedPlaylists(),
+                             itunesLibraryDiff.getAddedPlaylists());
+        filterPlaylists();
+        restoreSelection(sourcePlaylists, selectedSourcePlaylists, itunesLibraryDiff);
+        restoreSelection(targetPlaylists, selectedTargetPlaylists, itunesLibraryDiff);
+    }
+
+    private void restoreSelection(ListView<ItunesPlaylist> listView, List<ItunesPlaylist> selectedPlaylists,
+                                  ItunesLibraryDiff itunesLibraryDiff) {
+        Map<ItunesPlaylist, ItunesPlaylist> changedPlaylists = itunesLibraryDiff.getChangedPlaylists();
+        Set<ItunesPlaylist> removedPlaylists = new HashSet<>(itunesLibraryDiff.getRemovedPlaylists());
+        listView.getSelectionModel().clearSelection();
+        selectedPlaylists.stream()
+                .filter(playlist -> ! removedPlaylists.contains(playlist))
+                .map(playlist -> changedPlaylists.getOrDefault(playlist, playlist))
+                .forEach(playlist -> listView.getSelectionModel().select(playlist));
+    }
 }
@@ -0,0 +1,364 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.view;
+
+import com.worldsworstsoftware.itunes.ItunesPlaylist;
+import javafx.collections.*;
+
+import java.util.*;
+
+/**
+ * Model of the playlists to pick for the export. The playlists are sorted once, and each
+ * one carries a flag that tells whether it is to be exported. The source and the target
+ * lists are read-only views of the sorted playlists with the flag unset and set.
+ *
+ * <p>The flags are kept in a Fenwick tree, so the position of a playlist in a view and the
+ * playlist at a position are found in logarithmic time. Moving playlists costs time in
+ * proportion to the number of playlists moved, and each view fires a single change
+ * event for the whole move, instead of adding, removing and sorting the lists again.
+ * The same goes for the changes of a re-import, which only fire the affected entries.</p>
+ *
+ * @author Octavio Calleya
+ */
+class PlaylistTransferModel {
+
+    private final Comparator<ItunesPlaylist> order;
+    private final PlaylistsView sourcePlaylists = new PlaylistsView(false);
+    private final PlaylistsView targetPlaylists = new PlaylistsView(true);
+
+    private ItunesPlaylist[] playlists = new ItunesPlaylist[0];
+    private Map<ItunesPlaylist, Integer> ordinals = new IdentityHashMap<>();
+    private boolean[] inTarget = new boolean[0];
+    private int[] targetCounts = new int[1];
+    private int targetSize;
+
+    PlaylistTransferModel(Comparator<ItunesPlaylist> order) {
+        this.order = order;
+    }
+
+    ObservableList<ItunesPlaylist> getSourcePlaylists() {
+        return sourcePlaylists;
+    }
+
+    ObservableList<ItunesPlaylist> getTargetPlaylists() {
+        return targetPlaylists;
+    }
+
+    boolean isInSource(ItunesPlaylist playlist) {
+        Integer ordinal = ordinals.get(playlist);
+        return ordinal != null && ! inTarget[ordinal];
+    }
+
+    boolean isInTarget(ItunesPlaylist playlist) {
+        Integer ordinal = ordinals.get(playlist);
+        return ordinal != null && inTarget[ordinal];
+    }
+
+    /**
+     * Replaces all the playlists of the model, leaving them in the source list
+     */
+    void setPlaylists(Collection<ItunesPlaylist> itunesPlaylists) {
+        rebuild(itunesPlaylists, Collections.emptySet());
+    }
+
+    void moveToTarget(Collection<ItunesPlaylist> itunesPlaylists) {
+        move(itunesPlaylists, true);
+    }
+
+    void moveToSource(Collection<ItunesPlaylist> itunesPlaylists) {
+        move(itunesPlaylists, false);
+    }
+
+    /**
+     * Applies the changes of a re-import of the library. Changed playlists stay on the list
+     * where they were, and the added ones go to the source list.
+     *
+     * <p>The playlists already sorted are not sorted again: the added ones, and the changed
+     * ones that no longer fit in their place, are sorted among themselves and merged with
+     * the rest. Each view fires a single change event with only the affected entries.</p>
+     *
+     * @param removed The playlists that are no longer in the library
+     * @param changed The new instance of each changed playlist, by its previous instance
+     * @param added   The new playlists of the library
+     */
+    void update(Collection<ItunesPlaylist> removed, Map<ItunesPlaylist, ItunesPlaylist> changed,
+                Collection<ItunesPlaylist> added) {
+        Set<ItunesPlaylist> removedPlaylists = Collections.newSetFromMap(new IdentityHashMap<>());
+        removedPlaylists.addAll(removed);
+        ItunesPlaylist[] nextUnchanged = new ItunesPlaylist[playlists.length];
+        ItunesPlaylist unchanged = null;
+        for (int ordinal = playlists.length - 1; ordinal >= 0; ordinal--) {
+            nextUnchanged[ordinal] = unchanged;
+            if (! removedPlaylists.contains(playlists[ordinal]) && ! changed.containsKey(playlists[ordinal]))
+                unchanged = playlists[ordinal];
+        }
+
+        // The kept playlists, by their previous ordinal, or null for the removed and the moved ones
+        ItunesPlaylist[] keptPlaylists = new ItunesPlaylist[playlists.length];
+        List<ItunesPlaylist> insertedPlaylists = new ArrayList<>(added);
+        Set<ItunesPlaylist> insertedInTarget = Collections.newSetFromMap(new IdentityHashMap<>());
+        ItunesPlaylist lastKept = null;
+        for (int ordinal = 0; ordinal < playlists.length; ordinal++) {
+            if (removedPlaylists.contains(playlists[ordinal]))
+                continue;
+            ItunesPlaylist playlist = changed.getOrDefault(playlists[ordinal], playlists[ordinal]);
+            boolean fits = (lastKept == null || order.compare(lastKept, playlist) <= 0)
+                    && (nextUnchanged[ordinal] == null || order.compare(playlist, nextUnchanged[ordinal]) <= 0);
+            if (fits) {
+                keptPlaylists[ordinal] = playlist;
+                lastKept = playlist;
+            }
+            else {
+                insertedPlaylists.add(playlist);
+                if (inTarget[ordinal])
+                    insertedInTarget.add(playlist);
+            }
+        }
+        insertedPlaylists.sort(order);
+        merge(keptPlaylists, insertedPlaylists, insertedInTarget);
+    }
+
+    /**
+     * Merges the kept playlists with the inserted ones, both in order, firing the
+     * changes of each view at the positions where they happen.
+     */
+    private void merge(ItunesPlaylist[] keptPlaylists, List<ItunesPlaylist> insertedPlaylists,
+                       Set<ItunesPlaylist> insertedInTarget) {
+        ItunesPlaylist[] previousPlaylists = playlists;
+        boolean[] previousInTarget = inTarget;
+        int keptCount = (int) Arrays.stream(keptPlaylists).filter(Objects::nonNull).count();
+        playlists = new ItunesPlaylist[keptCount + insertedPlaylists.size()];
+        inTarget = new boolean[playlists.length];
+        ordinals = new IdentityHashMap<>(playlists.length);
+
+        sourcePlaylists.startChange();
+        targetPlaylists.startChange();
+        int sourcePosition = 0;
+        int targetPosition = 0;
+        int ordinal = 0;
+        int previousOrdinal = 0;
+        int inserted = 0;
+        while (ordinal < playlists.length || previousOrdinal < previousPlaylists.length) {
+            boolean previous = previousOrdinal < previousPlaylists.length
+                    && (inserted == insertedPlaylists.size() || keptPlaylists[previousOrdinal] == null
+                    || order.compare(keptPlaylists[previousOrdinal], insertedPlaylists.get(inserted)) <= 0);
+            ItunesPlaylist playlist;
+            boolean toTarget;
+            if (previous) {
+                ItunesPlaylist previousPlaylist = previousPlaylists[previousOrdinal];
+                playlist = keptPlaylists[previousOrdinal];
+                toTarget = previousInTarget[previousOrdinal++];
+                PlaylistsView view = toTarget ? targetPlaylists : sourcePlaylists;
+                int position = toTarget ? targetPosition : sourcePosition;
+                if (playlist == null) {
+                    view.removed(position, previousPlaylist);
+                    continue;
+                }
+                if (playlist != previousPlaylist)
+                    view.replaced(position, previousPlaylist);
+            }
+            else {
+                playlist = insertedPlaylists.get(inserted++);
+                toTarget = insertedInTarget.contains(playlist);
+                (toTarget ? targetPlaylists : sourcePlaylists).added(toTarget ? targetPosition : sourcePosition);
+            }
+            if (toTarget)
+                targetPosition++;
+            else
+                sourcePosition++;
+            playlists[ordinal] = playlist;
+            inTarget[ordinal] = toTarget;
+            ordinals.put(playlist, ordinal++);
+        }
+        buildTargetCounts();
+        sourcePlaylists.finishChange();
+        targetPlaylists.finishChange();
+    }
+
+    private void rebuild(Collection<ItunesPlaylist> itunesPlaylists, Set<ItunesPlaylist> playlistsInTarget) {
+        List<ItunesPlaylist> previousSource = new ArrayList<>(sourcePlaylists);
+        List<ItunesPlaylist> previousTarget = new ArrayList<>(targetPlaylists);
+
+        playlists = itunesPlaylists.toArray(new ItunesPlaylist[0]);
+        Arrays.sort(playlists, order);
+        ordinals = new IdentityHashMap<>(playlists.length);
+        inTarget = new boolean[playlists.length];
+        for (int ordinal = 0; ordinal < playlists.length; ordinal++) {
+            ordinals.put(playlists[ordinal], ordinal);
+            inTarget[ordinal] = playlistsInTarget.contains(playlists[ordinal]);
+        }
+        buildTargetCounts();
+
+        sourcePlaylists.fireReplaced(previousSource);
+        targetPlaylists.fireReplaced(previousTarget);
+    }
+
+    /**
+     * Builds the Fenwick tree from the flags in linear time, adding each node to its parent
+     */
+    private void buildTargetCounts() {
+        targetCounts = new int[playlists.length + 1];
+        targetSize = 0;
+        for (int ordinal = 0; ordinal < playlists.length; ordinal++)
+            if (inTarget[ordinal]) {
+                targetCounts[ordinal + 1]++;
+                targetSize++;
+            }
+        for (int node = 1; node <= playlists.length; node++) {
+            int parent = node + (node & - node);
+            if (parent <= playlists.length)
+                targetCounts[parent] += targetCounts[node];
+        }
+    }
+
+    private void move(Collection<ItunesPlaylist> itunesPlaylists, boolean toTarget) {
+        int[] moved = itunesPlaylists.stream()
+                .map(ordinals::get)
+                .filter(ordinal -> ordinal != null && inTarget[ordinal] != toTarget)
+                .mapToInt(Integer::intValue)
+                .sorted()
+                .distinct()
+                .toArray();
+        if (moved.length == 0)
+            return;
+
+        PlaylistsView from = toTarget ? sourcePlaylists : targetPlaylists;
+        PlaylistsView to = toTarget ? targetPlaylists : sourcePlaylists;
+        from.startChange();
+        to.startChange();
+        // In ascending order, so that each position is relative to the views with the previous moves applied
+        for (int ordinal : moved) {
+            int targetsBefore = targetsBefore(ordinal);
+            int fromPosition = toTarget ? ordinal - targetsBefore : targetsBefore;
+            inTarget[ordinal] = toTarget;
+            addToTargetCounts(ordinal, toTarget ? 1 : - 1);
+            int toPosition = toTarget ? targetsBefore : ordinal - targetsBefore;
+            from.removed(fromPosition, playlists[ordinal]);
+            to.added(toPosition);
+        }
+        from.finishChange();
+        to.finishChange();
+    }
+
+    private int targetsBefore(int ordinal) {
+        int count = 0;
+        for (int node = ordinal; node > 0; node -= node & - node)
+            count += targetCounts[node];
+        return count;
+    }
+
+    private void addToTargetCounts(int ordinal, int delta) {
+        targetSize += delta;
+        for (int node = ordinal + 1; node < targetCounts.length; node += node & - node)
+            targetCounts[node] += delta;
+    }
+
+    /**
+     * Finds the ordinal of the playlist at a position of one of the views, descending
+     * the Fenwick tree with the count of the playlists of that view under each node.
+     */
+    private int ordinalAt(int position, boolean ofTarget) {
+        int ordinal = 0;
+        int remaining = position + 1;
+        for (int step = Integer.highestOneBit(playlists.length); step > 0; step >>= 1) {
+            int node = ordinal + step;
+            if (node < targetCounts.length) {
+                int count = ofTarget ? targetCounts[node] : step - targetCounts[node];
+                if (count < remaining) {
+                    ordinal = node;
+                    remaining -= count;
+                }
+            }
+        }
+        return ordinal;
+    }
+
+    /**
+     * Read-only list of the playlists with the flag set or unset, in order
+     */
+    private class PlaylistsView extends ObservableListBase<ItunesPlaylist> {
+
+        private final boolean ofTarget;
+
+        private PlaylistsView(boolean ofTarget) {
+            this.ofTarget = ofTarget;
+        }
+
+        @Override
+        public ItunesPlaylist get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            return playlists[ordinalAt(index, ofTarget)];
+        }
+
+        @Override
+        public int size() {
+            return ofTarget ? targetSize : playlists.length - targetSize;
+        }
+
+        @Override
+        public int indexOf(Object object) {
+            Integer ordinal = ordinals.get(object);
+            if (ordinal == null || inTarget[ordinal] != ofTarget)
+                return - 1;
+            int targetsBefore = targetsBefore(ordinal);
+            return ofTarget ? targetsBefore : ordinal - targetsBefore;
+        }
+
+        @Override
+        public int lastIndexOf(Object object) {
+            return indexOf(object);
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return indexOf(object) != - 1;
+        }
+
+        private void startChange() {
+            beginChange();
+        }
+
+        private void finishChange() {
+            endChange();
+        }
+
+        private void removed(int index, ItunesPlaylist playlist) {
+            nextRemove(index, playlist);
+        }
+
+        private void added(int index) {
+            nextAdd(index, index + 1);
+        }
+
+        private void replaced(int index, ItunesPlaylist previousPlaylist) {
+            nextSet(index, previousPlaylist);
+        }
+
+        private void fireReplaced(List<ItunesPlaylist> previousPlaylists) {
+            beginChange();
+            if (! previousPlaylists.isEmpty())
+                nextRemove(0, previousPlaylists);
+            if (size() > 0)
+                nextAdd(0, size());
+            endChange();
+        }
+    }
+}
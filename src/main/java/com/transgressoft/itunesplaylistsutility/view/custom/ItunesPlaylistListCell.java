@@ -59,7 +59,7 @@ public class ItunesPlaylistListCell extends ListCell<ItunesPlaylist> {
 
     private String getPlaylistString(ItunesPlaylist itunesPlaylist) {
         int numTracks = itunesPlaylist.getTrackIDs().size();
-        long totalSize = itunesPlaylist.getTotalSize();
+        long totalSize = playlistsPickerController.getTotalSize(itunesPlaylist);
         String sizeString = new ByteSizeRepresentation(totalSize).withMaximumDecimals(1, RoundingMode.CEILING);
         String name = itunesPlaylist.getName();
         return name + " [" + numTracks + " tracks]" + " [" + sizeString + "]";
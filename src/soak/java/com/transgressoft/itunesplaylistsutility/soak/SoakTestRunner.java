@@ -0,0 +1,199 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.soak;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.transgressoft.itunesplaylistsutility.itunes.*;
+import com.transgressoft.itunesplaylistsutility.util.AsyncCopyLogger;
+import com.transgressoft.itunesplaylistsutility.util.AsyncCopyLogger.OverflowPolicy;
+import com.transgressoft.itunesplaylistsutility.view.*;
+import com.worldsworstsoftware.itunes.ItunesPlaylist;
+
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Runs the import and the copy of a {@link SyntheticItunesLibrary} through {@link ItunesService},
+ * without user interface, and records the throughput, the peak heap usage and the garbage
+ * collection pauses of the run. The results are appended to a csv file, and the process
+ * ends with an error if any of the budgets is exceeded, so that the build fails.
+ *
+ * <p>The size of the library and the budgets are given as {@code soak.*} system properties.</p>
+ *
+ * @author Octavio Calleya
+ */
+public class SoakTestRunner {
+
+    private final int tracks = Integer.getInteger("soak.tracks", 5000);
+    private final int playlists = Integer.getInteger("soak.playlists", 200);
+    private final int tracksPerPlaylist = Integer.getInteger("soak.tracksPerPlaylist", 40);
+    private final double sharedTracksSkew = Double.parseDouble(System.getProperty("soak.sharedTracksSkew", "1.0"));
+    private final int trackFileSize = Integer.getInteger("soak.trackFileSize", 64 * 1024);
+    private final long timeBudgetMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger("soak.timeBudgetSeconds", 120));
+    private final long maxGcPauseMillis = Integer.getInteger("soak.maxGcPauseMillis", 500);
+    private final long maxHeapBytes = Integer.getInteger("soak.maxHeapMegabytes", 256) * 1024L * 1024L;
+    private final TrackStorage trackStorage = TrackStorage.valueOf(System.getProperty("soak.trackStorage", "HEAP"));
+    private final Path resultsFile = Paths.get(System.getProperty("soak.results", "build/soak/results.csv"));
+
+    private final AtomicLong maxGcPauseMillisObserved = new AtomicLong();
+    private final AtomicLong totalGcPauseMillis = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        List<String> exceededBudgets = new SoakTestRunner().run();
+        if (! exceededBudgets.isEmpty()) {
+            exceededBudgets.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private List<String> run() throws Exception {
+        Path workingDirectory = Files.createTempDirectory("itunes-soak");
+        Path libraryDirectory = workingDirectory.resolve("library");
+        Path targetDirectory = Files.createDirectories(workingDirectory.resolve("target"));
+        SyntheticItunesLibrary syntheticLibrary = new SyntheticItunesLibrary(tracks, playlists, tracksPerPlaylist,
+                                                                             sharedTracksSkew, trackFileSize, 1L);
+        Path libraryXmlFile = syntheticLibrary.generate(libraryDirectory);
+        System.out.printf("Generated library of %d tracks and %d playlists in %s%n", tracks, playlists, libraryDirectory);
+
+        HeadlessItunesLibraryView itunesLibraryView = new HeadlessItunesLibraryView();
+        AsyncCopyLogger copyLogger = new AsyncCopyLogger(8192, OverflowPolicy.DROP);
+        ItunesService itunesService = new ItunesService();
+        itunesService.setItunesLibraryView(itunesLibraryView);
+        itunesService.setErrorView((title, exception) -> {
+            throw new IllegalStateException(title, exception);
+        });
+        itunesService.setCopyLogger(copyLogger);
+        itunesService.setTrackStorage(trackStorage);
+
+        System.gc();
+        listenToGarbageCollections();
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+        long start = System.nanoTime();
+
+        itunesService.isValidItunesLibraryXmlFile(libraryXmlFile.toFile());
+        itunesService.importItunesLibrary(libraryXmlFile.toFile());
+        List<ItunesPlaylist> importedPlaylists = itunesLibraryView.importedPlaylists.get(timeBudgetMillis, TimeUnit.MILLISECONDS);
+        long importMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long copyStart = System.nanoTime();
+        itunesService.copyItunesPlaylists(importedPlaylists, targetDirectory.toFile());
+        long copyMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - copyStart));
+        long totalMillis = importMillis + copyMillis;
+
+        long peakHeapBytes = peakHeapUsage();
+        copyLogger.shutdown();
+        long copiedFiles = countFiles(targetDirectory);
+        double filesPerSecond = copiedFiles * 1000.0 / copyMillis;
+        double megabytesPerSecond = copiedFiles * trackFileSize * 1000.0 / copyMillis / (1024 * 1024);
+
+        String result = String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%.1f,%.1f,%d,%d,%d",
+                                      System.currentTimeMillis(), tracks, playlists, importMillis, copyMillis, copiedFiles,
+                                      filesPerSecond, megabytesPerSecond, peakHeapBytes / (1024 * 1024),
+                                      maxGcPauseMillisObserved.get(), totalGcPauseMillis.get());
+        writeResult(result);
+        System.out.printf("Imported in %d ms, copied %d files in %d ms (%.1f files/s, %.1f MB/s), peak heap %d MB, " +
+                                  "max GC pause %d ms, total GC pauses %d ms%n",
+                          importMillis, copiedFiles, copyMillis, filesPerSecond, megabytesPerSecond, peakHeapBytes / (1024 * 1024),
+                          maxGcPauseMillisObserved.get(), totalGcPauseMillis.get());
+        deleteRecursively(workingDirectory);
+
+        List<String> exceededBudgets = new ArrayList<>();
+        long expectedFiles = syntheticLibrary.totalPlaylistTracks();
+        if (copiedFiles != expectedFiles)
+            exceededBudgets.add("Copied " + copiedFiles + " files, expected " + expectedFiles);
+        if (totalMillis > timeBudgetMillis)
+            exceededBudgets.add("Run took " + totalMillis + " ms, budget is " + timeBudgetMillis + " ms");
+        if (peakHeapBytes > maxHeapBytes)
+            exceededBudgets.add("Peak heap was " + peakHeapBytes + " bytes, budget is " + maxHeapBytes + " bytes");
+        if (maxGcPauseMillisObserved.get() > maxGcPauseMillis)
+            exceededBudgets.add("Max GC pause was " + maxGcPauseMillisObserved.get() + " ms, budget is " + maxGcPauseMillis + " ms");
+        return exceededBudgets;
+    }
+
+    private void listenToGarbageCollections() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long duration = info.getGcInfo().getDuration();
+                    totalGcPauseMillis.addAndGet(duration);
+                    maxGcPauseMillisObserved.accumulateAndGet(duration, Math::max);
+                }
+            }, null, null);
+        }
+    }
+
+    private long peakHeapUsage() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+    }
+
+    private long countFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private void writeResult(String result) throws IOException {
+        Files.createDirectories(resultsFile.toAbsolutePath().getParent());
+        if (! Files.exists(resultsFile)) {
+            String header = "timestamp,tracks,playlists,importMillis,copyMillis,copiedFiles," +
+                    "filesPerSecond,megabytesPerSecond,peakHeapMegabytes,maxGcPauseMillis,totalGcPauseMillis";
+            Files.write(resultsFile, Collections.singletonList(header), StandardCharsets.UTF_8);
+        }
+        Files.write(resultsFile, Collections.singletonList(result), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    private void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static class HeadlessItunesLibraryView implements ItunesLibraryView {
+
+        private final CompletableFuture<List<ItunesPlaylist>> importedPlaylists = new CompletableFuture<>();
+
+        @Override
+        public void setItunesPlaylists(List<ItunesPlaylist> itunesPlaylists) {
+            importedPlaylists.complete(itunesPlaylists);
+        }
+
+        @Override
+        public void setPlaylistSearchIndex(PlaylistSearchIndex playlistSearchIndex) {
+        }
+
+        @Override
+        public void applyItunesLibraryDiff(ItunesLibraryDiff itunesLibraryDiff) {
+        }
+    }
+}
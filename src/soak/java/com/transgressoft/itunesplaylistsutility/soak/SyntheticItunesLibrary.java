@@ -0,0 +1,199 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.soak;
+
+import javax.xml.stream.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Generator of an iTunes library of a given size, made of a {@code iTunes Music Library.xml}
+ * file that is valid against {@code PropertyList-1.0.xsd} and a matching tree of sparse
+ * dummy audio files, grouped by artist and album as iTunes does.
+ *
+ * <p>The tracks of the playlists are drawn following a Zipf distribution, so that a few
+ * popular tracks are shared by many playlists, as it happens in real libraries.</p>
+ *
+ * @author Octavio Calleya
+ */
+class SyntheticItunesLibrary {
+
+    private static final int TRACKS_PER_ALBUM = 12;
+    private static final int ALBUMS_PER_ARTIST = 4;
+
+    private final int tracks;
+    private final int playlists;
+    private final int tracksPerPlaylist;
+    private final double sharedTracksSkew;
+    private final int trackFileSize;
+    private final Random random;
+
+    /**
+     * @param tracks            The number of tracks of the library
+     * @param playlists         The number of playlists of the library
+     * @param tracksPerPlaylist The number of tracks of each playlist
+     * @param sharedTracksSkew  The exponent of the Zipf distribution of the tracks among the playlists,
+     *                          0 for an uniform distribution
+     * @param trackFileSize     The size in bytes of each dummy audio file
+     * @param seed              The seed of the random generator, so that runs are reproducible
+     */
+    SyntheticItunesLibrary(int tracks, int playlists, int tracksPerPlaylist, double sharedTracksSkew, int trackFileSize, long seed) {
+        this.tracks = tracks;
+        this.playlists = playlists;
+        this.tracksPerPlaylist = tracksPerPlaylist;
+        this.sharedTracksSkew = sharedTracksSkew;
+        this.trackFileSize = trackFileSize;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates the library xml file and the audio files in the given directory
+     *
+     * @param directory The directory where to create the library
+     *
+     * @return The path of the library xml file
+     *
+     * @throws IOException If any of the files could not be written
+     */
+    Path generate(Path directory) throws IOException {
+        Path mediaDirectory = directory.resolve("iTunes Media").resolve("Music");
+        Path libraryXmlFile = Files.createDirectories(directory).resolve("iTunes Music Library.xml");
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(libraryXmlFile))) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("plist");
+            writer.writeDefaultNamespace("http://www.w3.org/namespace/");
+            writer.writeAttribute("version", "1.0");
+            writer.writeStartElement("dict");
+            writeKeyValue(writer, "Major Version", "integer", "1");
+            writeKeyValue(writer, "Minor Version", "integer", "1");
+            writeKeyValue(writer, "Application Version", "string", "12.8.0.150");
+            writeKeyValue(writer, "Music Folder", "string", directory.resolve("iTunes Media").toUri().toString());
+            writeKeyValue(writer, "Library Persistent ID", "string", persistentId(0));
+            writeTracks(writer, mediaDirectory);
+            writePlaylists(writer);
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch (XMLStreamException exception) {
+            throw new IOException("Error writing the library xml file", exception);
+        }
+        return libraryXmlFile;
+    }
+
+    long totalPlaylistTracks() {
+        return (long) playlists * tracksPerPlaylist;
+    }
+
+    private void writeTracks(XMLStreamWriter writer, Path mediaDirectory) throws XMLStreamException, IOException {
+        writeKey(writer, "Tracks");
+        writer.writeStartElement("dict");
+        for (int trackId = 1; trackId <= tracks; trackId++) {
+            int album = (trackId - 1) / TRACKS_PER_ALBUM;
+            int artist = album / ALBUMS_PER_ARTIST;
+            String name = String.format("%02d Track %d", (trackId - 1) % TRACKS_PER_ALBUM + 1, trackId);
+            Path trackFile = mediaDirectory.resolve("Artist " + artist).resolve("Album " + album).resolve(name + ".mp3");
+            createSparseFile(trackFile);
+
+            writeKey(writer, String.valueOf(trackId));
+            writer.writeStartElement("dict");
+            writeKeyValue(writer, "Track ID", "integer", String.valueOf(trackId));
+            writeKeyValue(writer, "Name", "string", name);
+            writeKeyValue(writer, "Artist", "string", "Artist " + artist);
+            writeKeyValue(writer, "Album", "string", "Album " + album);
+            writeKeyValue(writer, "Kind", "string", "MPEG audio file");
+            writeKeyValue(writer, "Size", "integer", String.valueOf(trackFileSize));
+            writeKeyValue(writer, "Total Time", "integer", String.valueOf(180000 + random.nextInt(120000)));
+            writeKeyValue(writer, "Persistent ID", "string", persistentId(trackId));
+            writeKeyValue(writer, "Track Type", "string", "File");
+            writeKeyValue(writer, "Location", "string", trackFile.toUri().toString());
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void createSparseFile(Path trackFile) throws IOException {
+        Files.createDirectories(trackFile.getParent());
+        try (RandomAccessFile file = new RandomAccessFile(trackFile.toFile(), "rw")) {
+            file.setLength(trackFileSize);
+        }
+    }
+
+    private void writePlaylists(XMLStreamWriter writer) throws XMLStreamException {
+        double[] cumulativeWeights = zipfCumulativeWeights();
+        writeKey(writer, "Playlists");
+        writer.writeStartElement("array");
+        for (int playlistId = 1; playlistId <= playlists; playlistId++) {
+            // Half of the names are repeated, as several playlists with the same name are usual
+            writer.writeStartElement("dict");
+            writeKeyValue(writer, "Name", "string", "Playlist " + playlistId % (playlists / 2 + 1));
+            writeKeyValue(writer, "Playlist ID", "integer", String.valueOf(tracks + playlistId));
+            writeKeyValue(writer, "Playlist Persistent ID", "string", persistentId(tracks + playlistId));
+            writeKey(writer, "All Items");
+            writer.writeEmptyElement("true");
+            writeKey(writer, "Playlist Items");
+            writer.writeStartElement("array");
+            for (int i = 0; i < tracksPerPlaylist; i++) {
+                writer.writeStartElement("dict");
+                writeKeyValue(writer, "Track ID", "integer", String.valueOf(drawTrackId(cumulativeWeights)));
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private double[] zipfCumulativeWeights() {
+        double[] cumulativeWeights = new double[tracks];
+        double sum = 0;
+        for (int rank = 1; rank <= tracks; rank++) {
+            sum += 1.0 / Math.pow(rank, sharedTracksSkew);
+            cumulativeWeights[rank - 1] = sum;
+        }
+        return cumulativeWeights;
+    }
+
+    private int drawTrackId(double[] cumulativeWeights) {
+        double draw = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int position = Arrays.binarySearch(cumulativeWeights, draw);
+        return (position < 0 ? - position - 1 : position) + 1;
+    }
+
+    private String persistentId(int id) {
+        return String.format("%016X", id * 0x9E3779B97F4A7C15L);
+    }
+
+    private void writeKeyValue(XMLStreamWriter writer, String key, String type, String value) throws XMLStreamException {
+        writeKey(writer, key);
+        writer.writeStartElement(type);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+
+    private void writeKey(XMLStreamWriter writer, String key) throws XMLStreamException {
+        writer.writeStartElement("key");
+        writer.writeCharacters(key);
+        writer.writeEndElement();
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.transgressoft.itunesplaylistsutility.itunes.ExportDestination.Capability;
+import com.transgressoft.itunesplaylistsutility.util.*;
+import com.transgressoft.itunesplaylistsutility.util.Flow;
+import com.worldsworstsoftware.itunes.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class ExportJobTest {
+
+    private final ItunesLibrary itunesLibrary = new ItunesLibrary();
+    private final Map<Integer, Path> trackPaths = new HashMap<>();
+    private final List<ExportEvent> events = new CopyOnWriteArrayList<>();
+
+    private Path directory;
+    private Path sourceDirectory;
+    private AsyncCopyLogger copyLogger;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("export-job-test");
+        sourceDirectory = Files.createDirectory(directory.resolve("library"));
+        copyLogger = new AsyncCopyLogger(1024, AsyncCopyLogger.OverflowPolicy.DROP);
+    }
+
+    @AfterEach
+    void afterEach() throws Exception {
+        copyLogger.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    void copiesThePlaylistsToADirectoryAndAZipFile() throws Exception {
+        ItunesPlaylist rock = playlist("Rock", track(1, "01 Song.mp3"), track(2, "02 Song.mp3"));
+        ItunesPlaylist jazz = playlist("Jazz", 1, track(3, "03 Song.mp3"));
+        Path directoryRoot = Files.createDirectory(directory.resolve("directory"));
+        URI zipUri = URI.create("jar:" + directory.resolve("export.zip").toUri());
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zipUri, Collections.singletonMap("create", "true"))) {
+            Path zipRoot = zipFileSystem.getPath("/");
+
+            ExportEvent completed = export(Arrays.asList(rock, jazz), ExportDestination.of(directoryRoot, false),
+                                           ExportDestination.of(zipRoot, false));
+
+            for (Path root : Arrays.asList(directoryRoot, zipRoot)) {
+                assertCopied(1, root.resolve("Rock").resolve("01 Song.mp3"));
+                assertCopied(2, root.resolve("Rock").resolve("02 Song.mp3"));
+                assertCopied(1, root.resolve("Jazz").resolve("01 Song.mp3"));
+                assertCopied(3, root.resolve("Jazz").resolve("03 Song.mp3"));
+            }
+            assertCounts(completed, 8, 0);
+            assertDestinationCounts(completed, directoryRoot, 4, 0);
+            assertDestinationCounts(completed, zipRoot, 4, 0);
+            assertEquals(1.0, completed.getProgress());
+        }
+    }
+
+    @Test
+    void linksTheFilesWhenTheDestinationSupportsIt() throws Exception {
+        ItunesPlaylist rock = playlist("Rock", track(1, "01 Song.mp3"));
+        Path root = Files.createDirectory(directory.resolve("links"));
+
+        export(Collections.singletonList(rock), new TestDestination(root, EnumSet.of(Capability.LINKS), 1));
+
+        Path target = root.resolve("Rock").resolve("01 Song.mp3");
+        assertCopied(1, target);
+        assertTrue(Files.isSameFile(trackPaths.get(1), target), "File copied instead of linked");
+    }
+
+    @Test
+    void movesTheFilesIntoPlaceFromPartFiles() throws Exception {
+        ItunesPlaylist rock = playlist("Rock", track(1, "01 Song.mp3"), track(2, "02 Song.mp3"));
+        Path atomicRoot = Files.createDirectory(directory.resolve("atomic"));
+        Path plainRoot = Files.createDirectory(directory.resolve("plain"));
+        Path blockedPartFile = atomicRoot.resolve("Rock").resolve(".02 Song.mp3.part");
+        // Once the first file is done, the part file of the second one is taken by a directory
+        Consumer<ExportEvent> blocker = event -> {
+            if (event.getType() == ExportEvent.Type.PROGRESS && event.getProcessedFiles() == 1)
+                try {
+                    Files.createDirectory(blockedPartFile);
+                }
+                catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+        };
+
+        ExportEvent completed = export(Collections.singletonList(rock), blocker,
+                                       new TestDestination(atomicRoot, EnumSet.of(Capability.ATOMIC_MOVE), 1),
+                                       new TestDestination(plainRoot, EnumSet.noneOf(Capability.class), 1));
+
+        assertCopied(1, atomicRoot.resolve("Rock").resolve("01 Song.mp3"));
+        assertFalse(Files.exists(atomicRoot.resolve("Rock").resolve("02 Song.mp3")), "Failed file left with its name");
+        assertEquals(new HashSet<>(Arrays.asList("01 Song.mp3", ".02 Song.mp3.part")), fileNames(atomicRoot.resolve("Rock")));
+        assertCopied(1, plainRoot.resolve("Rock").resolve("01 Song.mp3"));
+        assertCopied(2, plainRoot.resolve("Rock").resolve("02 Song.mp3"));
+        assertDestinationCounts(completed, atomicRoot, 1, 1);
+        assertDestinationCounts(completed, plainRoot, 2, 0);
+        ExportEvent failed = events.stream().filter(event -> event.getType() == ExportEvent.Type.FILE_FAILED)
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(atomicRoot, failed.getDestination());
+        assertEquals(atomicRoot.resolve("Rock").resolve("02 Song.mp3"), failed.getTarget());
+    }
+
+    @Test
+    void givesADifferentNameToEachFileCopiedAtTheSameTime() throws Exception {
+        int[] trackIds = new int[40];
+        for (int i = 0; i < trackIds.length; i++) {
+            Path trackDirectory = Files.createDirectory(sourceDirectory.resolve("Album " + i));
+            trackIds[i] = track(i + 1, trackDirectory.resolve("Song.mp3"));
+        }
+        ItunesPlaylist playlist = playlist("Same names", trackIds);
+        Path root = Files.createDirectory(directory.resolve("concurrent"));
+
+        ExportEvent completed = export(Collections.singletonList(playlist),
+                                       new TestDestination(root, EnumSet.of(Capability.ATOMIC_MOVE), 8));
+
+        Set<String> expectedNames = new HashSet<>(Collections.singleton("Song.mp3"));
+        for (int i = 1; i < trackIds.length; i++)
+            expectedNames.add("Song(" + i + ").mp3");
+        Path playlistPath = root.resolve("Same names");
+        assertEquals(expectedNames, fileNames(playlistPath));
+        Set<String> copiedContents = new HashSet<>();
+        for (String name : expectedNames)
+            copiedContents.add(new String(Files.readAllBytes(playlistPath.resolve(name)), "UTF-8"));
+        Set<String> sourceContents = new HashSet<>();
+        for (int trackId : trackIds)
+            sourceContents.add(content(trackId));
+        assertEquals(sourceContents, copiedContents);
+        assertCounts(completed, trackIds.length, 0);
+    }
+
+    @Test
+    void keepsCopyingToTheOtherDestinationsWhenOneFails() throws Exception {
+        ItunesPlaylist rock = playlist("Rock", track(1, "01 Song.mp3"), track(2, "02 Song.mp3"));
+        ItunesPlaylist jazz = playlist("Jazz", track(3, "03 Song.mp3"));
+        Path missingRoot = directory.resolve("missing");
+        Path root = Files.createDirectory(directory.resolve("existing"));
+
+        ExportEvent completed = export(Arrays.asList(rock, jazz), ExportDestination.of(missingRoot, false),
+                                       ExportDestination.of(root, false));
+
+        assertFalse(Files.exists(missingRoot));
+        assertCopied(1, root.resolve("Rock").resolve("01 Song.mp3"));
+        assertCopied(2, root.resolve("Rock").resolve("02 Song.mp3"));
+        assertCopied(3, root.resolve("Jazz").resolve("03 Song.mp3"));
+        assertCounts(completed, 3, 3);
+        assertDestinationCounts(completed, missingRoot, 0, 3);
+        assertDestinationCounts(completed, root, 3, 0);
+        List<ExportEvent> failedDirectories = events.stream()
+                .filter(event -> event.getType() == ExportEvent.Type.FILE_FAILED)
+                .collect(Collectors.toList());
+        assertEquals(2, failedDirectories.size());
+        for (ExportEvent failedDirectory : failedDirectories) {
+            assertEquals(missingRoot, failedDirectory.getDestination());
+            assertNull(failedDirectory.getSource());
+        }
+    }
+
+    @Test
+    void deliversTheEventsInOrderEndingWithTheCompletion() throws Exception {
+        ItunesPlaylist rock = playlist("Rock", track(1, "01 Song.mp3"), track(2, "02 Song.mp3"));
+        Path root = Files.createDirectory(directory.resolve("events"));
+
+        ExportEvent completed = export(Collections.singletonList(rock), ExportDestination.of(root, false));
+
+        List<ExportEvent.Type> types = events.stream().map(ExportEvent::getType).collect(Collectors.toList());
+        assertEquals(Arrays.asList(ExportEvent.Type.PLANNED, ExportEvent.Type.STARTED,
+                                   ExportEvent.Type.FILE_COPIED, ExportEvent.Type.PROGRESS,
+                                   ExportEvent.Type.FILE_COPIED, ExportEvent.Type.PROGRESS,
+                                   ExportEvent.Type.COMPLETED), types);
+        assertSame(completed, events.get(events.size() - 1));
+        assertFalse(completed.isCancelled());
+    }
+
+    private ExportEvent export(List<ItunesPlaylist> playlists, ExportDestination... destinations) throws Exception {
+        return export(playlists, event -> {}, destinations);
+    }
+
+    /**
+     * Runs an export delivering the events synchronously, on the thread that copies the files
+     */
+    private ExportEvent export(List<ItunesPlaylist> playlists, Consumer<ExportEvent> onEvent,
+                               ExportDestination... destinations) throws Exception {
+        PlaylistCopyPlan copyPlan = new PlaylistCopyPlan(playlists, trackPaths::containsKey, trackPaths::get);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ExportJob exportJob = new ExportJob(copyPlan, Arrays.asList(destinations), copyLogger, new Object(),
+                                                executor, Runnable::run, FileCopyExecutorMode.PLATFORM, 8);
+            exportJob.getEvents().subscribe(new Flow.Subscriber<ExportEvent>() {
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ExportEvent event) {
+                    events.add(event);
+                    onEvent.accept(event);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            return exportJob.start().get(30, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private int track(int trackId, String fileName) throws IOException {
+        return track(trackId, sourceDirectory.resolve(fileName));
+    }
+
+    private int track(int trackId, Path path) throws IOException {
+        Files.write(path, content(trackId).getBytes("UTF-8"));
+        trackPaths.put(trackId, path);
+        return trackId;
+    }
+
+    private static String content(int trackId) {
+        return "Audio of the track " + trackId;
+    }
+
+    private ItunesPlaylist playlist(String name, int... trackIds) {
+        ItunesPlaylist playlist = new ItunesPlaylist(itunesLibrary);
+        playlist.setName(name);
+        for (int trackId : trackIds)
+            playlist.getTrackIDs().add(trackId);
+        return playlist;
+    }
+
+    private static void assertCopied(int trackId, Path target) throws IOException {
+        assertTrue(Files.exists(target), "File not copied " + target);
+        assertEquals(content(trackId), new String(Files.readAllBytes(target), "UTF-8"));
+    }
+
+    private static void assertCounts(ExportEvent completed, int copiedFiles, int failedFiles) {
+        assertEquals(ExportEvent.Type.COMPLETED, completed.getType());
+        assertEquals(copiedFiles, completed.getCopiedFiles());
+        assertEquals(failedFiles, completed.getFailedFiles());
+    }
+
+    private static void assertDestinationCounts(ExportEvent completed, Path root, int copiedFiles, int failedFiles) {
+        ExportEvent.DestinationCounts destinationCounts = completed.getDestinationCounts().stream()
+                .filter(counts -> counts.getDestination().equals(root))
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(copiedFiles, destinationCounts.getCopiedFiles(), "Copied files to " + root);
+        assertEquals(failedFiles, destinationCounts.getFailedFiles(), "Failed files on " + root);
+    }
+
+    private static Set<String> fileNames(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Destination with fixed capabilities, instead of probed ones
+     */
+    private static class TestDestination implements ExportDestination {
+
+        private final Path root;
+        private final Set<Capability> capabilities;
+        private final int preferredConcurrency;
+
+        private TestDestination(Path root, Set<Capability> capabilities, int preferredConcurrency) {
+            this.root = root;
+            this.capabilities = capabilities;
+            this.preferredConcurrency = preferredConcurrency;
+        }
+
+        @Override
+        public Path getRoot() {
+            return root;
+        }
+
+        @Override
+        public Set<Capability> getCapabilities() {
+            return capabilities;
+        }
+
+        @Override
+        public int getPreferredConcurrency() {
+            return preferredConcurrency;
+        }
+    }
+}
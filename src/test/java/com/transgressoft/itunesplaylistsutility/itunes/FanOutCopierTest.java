@@ -0,0 +1,156 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class FanOutCopierTest {
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 100;
+
+    private Path directory;
+    private Path source;
+    private byte[] sourceBytes;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("fan-out-copier-test");
+        sourceBytes = new byte[FILE_SIZE];
+        new Random(28).nextBytes(sourceBytes);
+        source = Files.write(directory.resolve("source.mp3"), sourceBytes);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    void copiesTheSourceToEveryTarget() throws Exception {
+        List<Path> targets = targets("a", "b", "c");
+        try (FanOutCopier copier = new FanOutCopier(targets.size())) {
+            assertTrue(copier.copy(source, targets).isEmpty());
+        }
+
+        for (Path target : targets) {
+            assertArrayEquals(sourceBytes, Files.readAllBytes(target));
+            assertEquals(Files.getLastModifiedTime(source), Files.getLastModifiedTime(target));
+        }
+    }
+
+    @Test
+    void completesTheOtherTargetsWhenOneFails() throws Exception {
+        List<Path> targets = targets("a", "b");
+        targets.add(directory.resolve("missing").resolve("c.mp3"));
+        Map<Path, IOException> failures;
+        try (FanOutCopier copier = new FanOutCopier(targets.size())) {
+            failures = copier.copy(source, targets);
+        }
+
+        assertEquals(Collections.singleton(targets.get(2)), failures.keySet());
+        assertArrayEquals(sourceBytes, Files.readAllBytes(targets.get(0)));
+        assertArrayEquals(sourceBytes, Files.readAllBytes(targets.get(1)));
+    }
+
+    @Test
+    void leavesNoTargetAndKeepsCopyingWhenTheSourceFailsPartway() {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (FailingSourceCopier copier = new FailingSourceCopier(2, 2 * 1024 * 1024)) {
+                for (int copy = 0; copy < 10; copy++) {
+                    List<Path> targets = targets("failed-" + copy + "-a", "failed-" + copy + "-b");
+                    assertThrows(IOException.class, () -> copier.copy(source, targets));
+                    for (Path target : targets)
+                        assertFalse(Files.exists(target), "Target left after a source failure " + target);
+                }
+
+                copier.failing = false;
+                List<Path> targets = targets("a", "b");
+                assertTrue(copier.copy(source, targets).isEmpty());
+                assertArrayEquals(sourceBytes, Files.readAllBytes(targets.get(1)));
+            }
+        });
+    }
+
+    private List<Path> targets(String... names) {
+        return Arrays.stream(names)
+                .map(name -> directory.resolve(name + ".mp3"))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Copier whose source fails after the given number of bytes while failing is set
+     */
+    private static class FailingSourceCopier extends FanOutCopier {
+
+        private final long failingPosition;
+        private volatile boolean failing = true;
+
+        private FailingSourceCopier(int destinations, long failingPosition) {
+            super(destinations);
+            this.failingPosition = failingPosition;
+        }
+
+        @Override
+        ReadableByteChannel openSource(Path source) throws IOException {
+            ReadableByteChannel channel = super.openSource(source);
+            if (! failing)
+                return channel;
+            return new ReadableByteChannel() {
+
+                private long position;
+
+                @Override
+                public int read(ByteBuffer buffer) throws IOException {
+                    if (position >= failingPosition)
+                        throw new IOException("Source unplugged");
+                    int read = channel.read(buffer);
+                    position += read;
+                    return read;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+    }
+}
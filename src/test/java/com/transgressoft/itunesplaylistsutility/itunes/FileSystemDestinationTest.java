@@ -0,0 +1,105 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.transgressoft.itunesplaylistsutility.itunes.ExportDestination.Capability;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class FileSystemDestinationTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("file-system-destination-test");
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    void findsOutTheCapabilitiesOfALocalDirectory() throws IOException {
+        ExportDestination destination = ExportDestination.of(directory, true);
+
+        assertEquals(EnumSet.of(Capability.LINKS, Capability.ATOMIC_MOVE), destination.getCapabilities());
+        assertEquals(1, destination.getPreferredConcurrency());
+        assertEquals(0, countFiles(directory), "Probe files left in the destination");
+    }
+
+    @Test
+    void doesNotLinkTheFilesUnlessAllowed() {
+        ExportDestination destination = ExportDestination.of(directory, false);
+
+        assertEquals(EnumSet.of(Capability.ATOMIC_MOVE), destination.getCapabilities());
+    }
+
+    @Test
+    void copiesOneFileAtATimeToAZipFile() throws IOException {
+        URI zipUri = URI.create("jar:" + directory.resolve("export.zip").toUri());
+        try (FileSystem zipFileSystem = FileSystems.newFileSystem(zipUri, Collections.singletonMap("create", "true"))) {
+            Path root = zipFileSystem.getPath("/");
+            ExportDestination destination = ExportDestination.of(root, true);
+
+            assertFalse(destination.supports(Capability.LINKS), "Links into a zip file");
+            assertEquals(1, destination.getPreferredConcurrency());
+            assertEquals(0, countFiles(root), "Probe files left in the destination");
+        }
+    }
+
+    @Test
+    void hasNoCapabilitiesWhenTheRootCannotBeWritten() {
+        ExportDestination destination = ExportDestination.of(directory.resolve("missing"), true);
+
+        assertTrue(destination.getCapabilities().isEmpty());
+        assertEquals(1, destination.getPreferredConcurrency());
+    }
+
+    @Test
+    void probesTheCapabilitiesOnlyOnce() throws IOException {
+        ExportDestination destination = ExportDestination.of(directory, true);
+        Set<Capability> capabilities = destination.getCapabilities();
+        Files.delete(directory);
+
+        assertSame(capabilities, destination.getCapabilities());
+        Files.createDirectory(directory);
+    }
+
+    private static long countFiles(Path root) throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class MappedTrackTableTest {
+
+    private static final String NAME_CHARACTERS = "abcXYZ019 +%&#áéñÜçøß日本語";
+    private static final String[] TRACK_TYPES = {"File", "URL", "Remote", "Podcast", null};
+
+    private Path directory;
+    private TrackLocationResolver resolver;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("mapped-track-table-test");
+        resolver = new TrackLocationResolver();
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList()))
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void readsTheTracksAsTheHeapTable() throws IOException {
+        Map<Integer, ItunesTrack> tracks = randomTracks(new Random(38), 5000);
+        TrackTable heapTable = new HeapTrackTable(new HashMap<>(tracks), new TrackLocationResolver());
+        TrackTable mappedTable = MappedTrackTable.write(tracks, directory, resolver);
+
+        for (int trackId = 0; trackId <= 5000 * 3 + 2; trackId++) {
+            assertEquals(heapTable.contains(trackId), mappedTable.contains(trackId), "Contains track " + trackId);
+            if (! heapTable.contains(trackId))
+                continue;
+            assertEquals(heapTable.getSize(trackId), mappedTable.getSize(trackId), "Size of track " + trackId);
+            assertEquals(heapTable.getName(trackId), mappedTable.getName(trackId), "Name of track " + trackId);
+            assertEquals(heapTable.getPath(trackId), mappedTable.getPath(trackId), "Path of track " + trackId);
+        }
+    }
+
+    @Test
+    void readsOnlyTheKnownTrackTypes() throws IOException {
+        Map<Integer, ItunesTrack> tracks = new HashMap<>();
+        for (int i = 0; i < TRACK_TYPES.length; i++)
+            tracks.put(i, track(i, "Track " + i, TRACK_TYPES[i]));
+        TrackTable mappedTable = MappedTrackTable.write(tracks, directory, resolver);
+
+        assertEquals("File", mappedTable.getTrackType(0));
+        assertEquals("URL", mappedTable.getTrackType(1));
+        assertEquals("Remote", mappedTable.getTrackType(2));
+        assertNull(mappedTable.getTrackType(3));
+        assertNull(mappedTable.getTrackType(4));
+    }
+
+    @Test
+    void readsStringsLargerThanTheWriteBuffer() throws IOException {
+        char[] longName = new char[100_000];
+        Arrays.fill(longName, 'ñ');
+        Map<Integer, ItunesTrack> tracks = new HashMap<>();
+        tracks.put(1, track(1, "Before", "File"));
+        tracks.put(2, track(2, new String(longName), "File"));
+        tracks.put(3, track(3, "After", "File"));
+        TrackTable mappedTable = MappedTrackTable.write(tracks, directory, resolver);
+
+        assertEquals("Before", mappedTable.getName(1));
+        assertEquals(new String(longName), mappedTable.getName(2));
+        assertEquals("After", mappedTable.getName(3));
+    }
+
+    @Test
+    void visitsTheTracksInOrderOfTrackId() throws IOException {
+        Map<Integer, ItunesTrack> tracks = randomTracks(new Random(380), 1000);
+        TrackTable mappedTable = MappedTrackTable.write(tracks, directory, resolver);
+
+        List<Integer> visitedIds = new ArrayList<>();
+        mappedTable.forEachTrackId(visitedIds::add);
+
+        assertEquals(new ArrayList<>(new TreeSet<>(tracks.keySet())), visitedIds);
+    }
+
+    @Test
+    void sumsTheSizesOfTheTracksInTheTable() throws IOException {
+        Map<Integer, ItunesTrack> tracks = new HashMap<>();
+        for (int trackId = 1; trackId <= 3; trackId++) {
+            ItunesTrack track = track(trackId, "Track " + trackId, "File");
+            track.setSize(trackId * 1000);
+            tracks.put(trackId, track);
+        }
+        TrackTable mappedTable = MappedTrackTable.write(tracks, directory, resolver);
+
+        assertEquals(4000, mappedTable.getTotalSize(Arrays.asList(1, 3, 4)));
+    }
+
+    @Test
+    void rejectsTracksNotInTheTable() throws IOException {
+        TrackTable mappedTable = MappedTrackTable.write(Collections.singletonMap(2, track(2, "Track", "File")), directory, resolver);
+
+        assertFalse(mappedTable.contains(1));
+        assertThrows(IllegalArgumentException.class, () -> mappedTable.getSize(1));
+        assertThrows(IllegalArgumentException.class, () -> mappedTable.getName(3));
+    }
+
+    @Test
+    void writesAnEmptyTable() throws IOException {
+        TrackTable mappedTable = MappedTrackTable.write(Collections.emptyMap(), directory, resolver);
+
+        assertFalse(mappedTable.contains(0));
+        mappedTable.forEachTrackId(trackId -> fail("Visited track " + trackId));
+    }
+
+    @Test
+    void deletesTheTableFilesLeftInTheDirectory() throws IOException {
+        Path leftTable = Files.createTempFile(directory, "itunes-tracks", ".table");
+        Path otherFile = Files.createTempFile(directory, "itunes-tracks", ".xml");
+
+        TrackTable mappedTable = MappedTrackTable.write(Collections.singletonMap(1, track(1, "Track", "File")), directory, resolver);
+
+        assertFalse(Files.exists(leftTable), "Left table file not deleted");
+        assertTrue(Files.exists(otherFile));
+        assertEquals("Track", mappedTable.getName(1));
+    }
+
+    @Test
+    void findsTheChangesOfTheComparedFields() throws IOException {
+        ItunesTrack loaded = track(1, "Track", "File");
+        loaded.setSize(1000);
+        loaded.setTotalTime(180_000);
+        loaded.setDateModified("2018-10-01T10:00:00Z");
+        TrackTable mappedTable = MappedTrackTable.write(Collections.singletonMap(1, loaded), directory, resolver);
+
+        assertFalse(mappedTable.isChanged(1, copyOf(loaded)));
+        ItunesTrack reloaded = copyOf(loaded);
+        reloaded.setLocation("file:///Music/Artist/Album/Other.mp3");
+        assertTrue(mappedTable.isChanged(1, reloaded), "Location change not found");
+        reloaded = copyOf(loaded);
+        reloaded.setSize(1001);
+        assertTrue(mappedTable.isChanged(1, reloaded), "Size change not found");
+        reloaded = copyOf(loaded);
+        reloaded.setTotalTime(180_001);
+        assertTrue(mappedTable.isChanged(1, reloaded), "Total time change not found");
+        reloaded = copyOf(loaded);
+        reloaded.setTrackType("URL");
+        assertTrue(mappedTable.isChanged(1, reloaded), "Track type change not found");
+        reloaded = copyOf(loaded);
+        reloaded.setName(null);
+        assertTrue(mappedTable.isChanged(1, reloaded), "Name change not found");
+        reloaded = copyOf(loaded);
+        reloaded.setDateModified("2018-10-02T10:00:00Z");
+        assertTrue(mappedTable.isChanged(1, reloaded), "Date modified change not found");
+    }
+
+    @Test
+    void mergesIntoANewTableLeavingTheLoadedOneUntouched() throws IOException {
+        ItunesLibrary loadedLibrary = new ItunesLibrary();
+        loadedLibrary.addTrack(track(1, "Kept", "File"));
+        loadedLibrary.addTrack(track(2, "Removed", "File"));
+        loadedLibrary.addTrack(track(3, "Changed", "File"));
+        TrackTable loadedTable = TrackStorage.MAPPED.createTable(loadedLibrary, resolver);
+        ItunesLibrary reloadedLibrary = new ItunesLibrary();
+        reloadedLibrary.addTrack(track(1, "Kept", "File"));
+        reloadedLibrary.addTrack(track(3, "Changed again", "File"));
+        reloadedLibrary.addTrack(track(4, "Added", "File"));
+
+        ItunesLibraryDiff libraryDiff = ItunesLibraryDiff.between(loadedLibrary, loadedTable, reloadedLibrary, playlist -> true);
+        TrackTable mergedTable = loadedTable.merge(libraryDiff, reloadedLibrary);
+
+        assertNotSame(loadedTable, mergedTable);
+        assertTrue(loadedLibrary.getTracks().isEmpty(), "Loaded tracks kept on the heap");
+        assertTrue(reloadedLibrary.getTracks().isEmpty(), "Reloaded tracks kept on the heap");
+        assertEquals("Changed", loadedTable.getName(3));
+        assertTrue(loadedTable.contains(2));
+        assertEquals("Changed again", mergedTable.getName(3));
+        assertFalse(mergedTable.contains(2));
+        assertEquals("Added", mergedTable.getName(4));
+        assertEquals("Kept", mergedTable.getName(1));
+    }
+
+    private static Map<Integer, ItunesTrack> randomTracks(Random random, int count) {
+        Map<Integer, ItunesTrack> tracks = new HashMap<>();
+        for (int i = 1; i <= count; i++) {
+            int trackId = i * 3;
+            ItunesTrack track = track(trackId, i % 97 == 0 ? null : randomName(random), "File");
+            track.setSize(random.nextInt(Integer.MAX_VALUE));
+            tracks.put(trackId, track);
+        }
+        return tracks;
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int length = random.nextInt(40);
+        for (int i = 0; i < length; i++)
+            name.append(NAME_CHARACTERS.charAt(random.nextInt(NAME_CHARACTERS.length())));
+        return name.toString();
+    }
+
+    private static ItunesTrack track(int trackId, String name, String trackType) {
+        ItunesTrack track = new ItunesTrack();
+        track.setTrackID(trackId);
+        track.setName(name);
+        track.setTrackType(trackType);
+        track.setLocation(Paths.get("/Music/Ártist/Album " + trackId, trackId + " song.mp3").toUri().toASCIIString());
+        return track;
+    }
+
+    private static ItunesTrack copyOf(ItunesTrack track) {
+        ItunesTrack copy = track(track.getTrackID(), track.getName(), track.getTrackType());
+        copy.setLocation(track.getLocation());
+        copy.setSize(track.getSize());
+        copy.setTotalTime(track.getTotalTime());
+        copy.setDateModified(track.getDateModified());
+        return copy;
+    }
+}
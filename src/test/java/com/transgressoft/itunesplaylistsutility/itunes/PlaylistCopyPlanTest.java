@@ -0,0 +1,108 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class PlaylistCopyPlanTest {
+
+    private final ItunesLibrary itunesLibrary = new ItunesLibrary();
+
+    @Test
+    void appendsAFreeSuffixToTheRepeatedNames() {
+        List<ItunesPlaylist> playlists = playlists("Foo", "Foo", "Foo(1)", "Bar", "Foo");
+
+        Map<ItunesPlaylist, String> directoryNames = copyPlan(playlists).directoryNames();
+
+        assertEquals(Arrays.asList("Foo", "Foo(2)", "Foo(1)", "Bar", "Foo(3)"),
+                     playlists.stream().map(directoryNames::get).collect(Collectors.toList()));
+    }
+
+    @Test
+    void givesADifferentDirectoryNameToEachPlaylist() {
+        Random random = new Random(26);
+        String[] names = {"Foo", "Foo(1)", "Foo(2)", "Foo(1)(1)", "Bar", "Bar(1)"};
+        for (int selection = 0; selection < 500; selection++) {
+            String[] selectedNames = new String[1 + random.nextInt(12)];
+            for (int i = 0; i < selectedNames.length; i++)
+                selectedNames[i] = names[random.nextInt(names.length)];
+            List<ItunesPlaylist> playlists = playlists(selectedNames);
+
+            Map<ItunesPlaylist, String> directoryNames = copyPlan(playlists).directoryNames();
+
+            assertEquals(playlists.size(), new HashSet<>(directoryNames.values()).size(), Arrays.toString(selectedNames));
+            Set<String> distinctNames = new HashSet<>(Arrays.asList(selectedNames));
+            for (ItunesPlaylist playlist : playlists) {
+                String directoryName = directoryNames.get(playlist);
+                assertTrue(directoryName.startsWith(playlist.getName()), directoryName);
+                distinctNames.remove(directoryName);
+            }
+            assertTrue(distinctNames.isEmpty(), "Names not kept by any playlist " + distinctNames);
+        }
+    }
+
+    @Test
+    void iteratesTheCopyableTracksResolvingTheirPathsOnlyWhenAsked() {
+        List<ItunesPlaylist> playlists = playlists("Rock", "Empty", "Jazz");
+        playlists.get(0).getTrackIDs().addAll(Arrays.asList(1, 2, 3));
+        playlists.get(2).getTrackIDs().addAll(Arrays.asList(4, 2));
+        List<Integer> resolvedTracks = new ArrayList<>();
+        PlaylistCopyPlan copyPlan = new PlaylistCopyPlan(playlists, trackId -> trackId != 3, trackId -> {
+            resolvedTracks.add(trackId);
+            return Paths.get(trackId + ".mp3");
+        });
+
+        List<PlaylistCopyPlan.CopyTask> copyTasks = new ArrayList<>();
+        copyPlan.forEach(copyTasks::add);
+
+        assertEquals(4, copyPlan.countTracks());
+        assertEquals(Arrays.asList(1, 2, 4, 2), copyTasks.stream().map(PlaylistCopyPlan.CopyTask::getTrackId)
+                .collect(Collectors.toList()));
+        assertEquals(Arrays.asList(playlists.get(0), playlists.get(0), playlists.get(2), playlists.get(2)),
+                     copyTasks.stream().map(PlaylistCopyPlan.CopyTask::getPlaylist).collect(Collectors.toList()));
+        assertTrue(resolvedTracks.isEmpty(), "Paths resolved before being asked for");
+        assertEquals(Paths.get("4.mp3"), copyTasks.get(2).getSourcePath());
+        assertEquals(Collections.singletonList(4), resolvedTracks);
+    }
+
+    private List<ItunesPlaylist> playlists(String... names) {
+        List<ItunesPlaylist> playlists = new ArrayList<>();
+        for (String name : names) {
+            ItunesPlaylist playlist = new ItunesPlaylist(itunesLibrary);
+            playlist.setName(name);
+            playlists.add(playlist);
+        }
+        return playlists;
+    }
+
+    private static PlaylistCopyPlan copyPlan(List<ItunesPlaylist> playlists) {
+        return new PlaylistCopyPlan(playlists, trackId -> true, trackId -> Paths.get(trackId + ".mp3"));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class PlaylistSearchIndexTest {
+
+    private static final String[] QUERIES = {"", "a", "Ro", "roc", "rock", "jazz", "ÉTÉ", "ete", "zzz"};
+    private static final String[] WORDS = {"Rock", "jazz", "Été", "pop", "Rocket", "blues"};
+
+    private final ItunesLibrary itunesLibrary = new ItunesLibrary();
+    private final Map<Integer, String> trackNames = new ConcurrentHashMap<>();
+    private final PlaylistSearchIndex searchIndex = new PlaylistSearchIndex(trackNames::get);
+    private final List<ItunesPlaylist> playlists = new ArrayList<>();
+
+    @Test
+    void searchesOnlyThePlaylistNamesUntilTheTrackNamesAreIndexed() {
+        trackNames.put(1, "Rock song");
+        ItunesPlaylist playlist = playlist("Favourites", 1);
+        searchIndex.addPlaylists(Collections.singletonList(playlist));
+
+        assertTrue(searchIndex.search("rock", true).isEmpty());
+        assertFalse(searchIndex.isTrackNamesIndexed());
+
+        searchIndex.indexTrackNames();
+
+        assertTrue(searchIndex.isTrackNamesIndexed());
+        assertEquals(Collections.singleton(playlist), searchIndex.search("rock", true));
+        assertTrue(searchIndex.search("rock", false).isEmpty());
+    }
+
+    @Test
+    void findsTheSamePlaylistsAsANaiveScan() {
+        Random random = new Random(38);
+        for (int trackId = 0; trackId < 300; trackId++)
+            trackNames.put(trackId, randomName(random));
+        for (int i = 0; i < 100; i++)
+            playlists.add(randomPlaylist(random));
+        searchIndex.addPlaylists(playlists);
+        searchIndex.indexTrackNames();
+
+        for (String query : QUERIES) {
+            assertEquals(naiveSearch(query, false), searchIndex.search(query, false), query);
+            assertEquals(naiveSearch(query, true), searchIndex.search(query, true), query);
+        }
+    }
+
+    @Test
+    void indexesThePlaylistsAddedWhileTheTrackNamesAreIndexed() throws Exception {
+        Random random = new Random(380);
+        for (int trackId = 0; trackId < 3000; trackId++)
+            trackNames.put(trackId, randomName(random));
+        for (int i = 0; i < 500; i++)
+            playlists.add(randomPlaylist(random));
+        searchIndex.addPlaylists(playlists);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> indexing = executor.submit(searchIndex::indexTrackNames);
+        for (int i = 0; i < 50; i++) {
+            ItunesPlaylist playlist = randomPlaylist(random);
+            playlists.add(playlist);
+            searchIndex.addPlaylists(Collections.singletonList(playlist));
+            searchIndex.search(QUERIES[random.nextInt(QUERIES.length)], true);
+        }
+        indexing.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        for (String query : QUERIES)
+            assertEquals(naiveSearch(query, true), searchIndex.search(query, true), query);
+    }
+
+    private Set<ItunesPlaylist> naiveSearch(String query, boolean includeTrackNames) {
+        String normalizedQuery = normalize(query);
+        Set<ItunesPlaylist> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ItunesPlaylist playlist : playlists) {
+            if (normalize(playlist.getName()).contains(normalizedQuery))
+                matches.add(playlist);
+            else if (includeTrackNames)
+                for (Object trackId : playlist.getTrackIDs())
+                    if (normalize(trackNames.get(trackId)).contains(normalizedQuery))
+                        matches.add(playlist);
+        }
+        return matches;
+    }
+
+    private static String normalize(String text) {
+        return java.text.Normalizer.normalize(text, java.text.Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+    }
+
+    private ItunesPlaylist randomPlaylist(Random random) {
+        int[] trackIds = new int[random.nextInt(20)];
+        for (int i = 0; i < trackIds.length; i++)
+            trackIds[i] = random.nextInt(trackNames.size());
+        return playlist(randomName(random), trackIds);
+    }
+
+    private static String randomName(Random random) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(1000) + " " + WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private ItunesPlaylist playlist(String name, int... trackIds) {
+        ItunesPlaylist playlist = new ItunesPlaylist(itunesLibrary);
+        playlist.setName(name);
+        for (int trackId : trackIds)
+            playlist.getTrackIDs().add(trackId);
+        return playlist;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.itunes;
+
+import com.worldsworstsoftware.itunes.ItunesTrack;
+import org.junit.jupiter.api.*;
+
+import java.net.URI;
+import java.nio.file.*;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class TrackLocationResolverTest {
+
+    private static final String NAME_CHARACTERS = "abcXYZ019 +%&#;,=@!'()[]~_-.áéñÜçøß日本語";
+
+    private TrackLocationResolver resolver;
+
+    @BeforeEach
+    void beforeEach() {
+        resolver = new TrackLocationResolver();
+    }
+
+    @Test
+    void decodesEscapedMultiByteCharacters() {
+        Path path = resolver.decode("file:///Music/Bj%C3%B6rk/Homogenic/01%20J%C3%B3ga.mp3");
+
+        assertEquals(Paths.get("/Music/Björk/Homogenic/01 Jóga.mp3"), path);
+    }
+
+    @Test
+    void keepsPlusSignsOfTheFileName() {
+        Path path = resolver.decode("file:///Music/Artist/Album/A+B%2BC.m4a");
+
+        assertEquals("A+B+C.m4a", path.getFileName().toString());
+    }
+
+    @Test
+    void encodesUnescapedCharactersAsUtf8() {
+        Path path = resolver.decode("file:///Music/Artist/Album/caf%C3%A9%20ñ.mp3");
+
+        assertEquals("café ñ.mp3", path.getFileName().toString());
+    }
+
+    @Test
+    void decodesAsTheUriOfTheFileSystem() {
+        Random random = new Random(27);
+        for (int i = 0; i < 2000; i++) {
+            Path expected = Paths.get("/Music/Some Artist/Album " + i, randomName(random));
+            String location = expected.toUri().toASCIIString();
+
+            assertEquals(expected, resolver.decode(location), location);
+        }
+    }
+
+    @Test
+    void sharesTheDirectoryOfTheTracksOfAnAlbum() {
+        resolver.resolve(track(1, "file:///Music/Artist/Album%20One/01.mp3"));
+        resolver.resolve(track(2, "file:///Music/Artist/Album%20One/02.mp3"));
+        resolver.resolve(track(3, "file:///Music/Artist/Album%20Two/01.mp3"));
+
+        assertEquals(3, resolver.cachedTracks());
+        assertEquals(2, resolver.cachedDirectories());
+    }
+
+    @Test
+    void resolvesAgainAForgottenTrack() {
+        ItunesTrack track = track(1, "file:///Music/Artist/Album/01.mp3");
+        Path path = resolver.resolve(track);
+        track.setLocation("file:///Music/Artist/Album/01%20Renamed.mp3");
+
+        assertSame(path, resolver.resolve(track));
+        resolver.forget(1);
+        assertEquals(Paths.get("/Music/Artist/Album/01 Renamed.mp3"), resolver.resolve(track));
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int length = 1 + random.nextInt(20);
+        for (int i = 0; i < length; i++)
+            name.append(NAME_CHARACTERS.charAt(random.nextInt(NAME_CHARACTERS.length())));
+        return name.append(".mp3").toString();
+    }
+
+    private static ItunesTrack track(int trackId, String location) {
+        ItunesTrack track = new ItunesTrack();
+        track.setTrackID(trackId);
+        track.setLocation(location);
+        return track;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class BoundedLogQueueTest {
+
+    @Test
+    void roundsTheCapacityUpToAPowerOfTwo() {
+        BoundedLogQueue<Integer> queue = new BoundedLogQueue<>(5);
+        for (int i = 0; i < 8; i++)
+            assertTrue(queue.offer(i), "Element " + i + " rejected");
+
+        assertFalse(queue.offer(8));
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(8));
+    }
+
+    @Test
+    void pollsNothingWhenEmpty() {
+        BoundedLogQueue<Integer> queue = new BoundedLogQueue<>(4);
+
+        assertNull(queue.poll());
+        queue.offer(1);
+        queue.poll();
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void behavesAsABoundedFifoQueue() {
+        Random random = new Random(29);
+        BoundedLogQueue<Integer> queue = new BoundedLogQueue<>(16);
+        Deque<Integer> expected = new ArrayDeque<>();
+        for (int operation = 0; operation < 100_000; operation++) {
+            if (random.nextInt(100) < 55) {
+                boolean offered = queue.offer(operation);
+                assertEquals(expected.size() < 16, offered, "Offer at size " + expected.size());
+                if (offered)
+                    expected.addLast(operation);
+            }
+            else
+                assertEquals(expected.pollFirst(), queue.poll());
+        }
+    }
+
+    @Test
+    void deliversEveryElementOnceWithConcurrentProducersAndConsumers() throws Exception {
+        int producers = 4;
+        int consumers = 3;
+        int elementsPerProducer = 20_000;
+        BoundedLogQueue<long[]> queue = new BoundedLogQueue<>(64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        ConcurrentLinkedQueue<long[]> consumed = new ConcurrentLinkedQueue<>();
+        CountDownLatch producersDone = new CountDownLatch(producers);
+
+        for (int producer = 0; producer < producers; producer++) {
+            long producerId = producer;
+            executor.execute(() -> {
+                for (long sequence = 0; sequence < elementsPerProducer; sequence++)
+                    while (! queue.offer(new long[]{producerId, sequence}))
+                        Thread.yield();
+                producersDone.countDown();
+            });
+        }
+        List<Future<?>> consumerTasks = new ArrayList<>();
+        for (int consumer = 0; consumer < consumers; consumer++) {
+            consumerTasks.add(executor.submit(() -> {
+                long[] lastSequences = new long[producers];
+                Arrays.fill(lastSequences, -1);
+                while (true) {
+                    long[] element = queue.poll();
+                    if (element == null) {
+                        if (producersDone.getCount() == 0 && (element = queue.poll()) == null)
+                            return;
+                        if (element == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                    }
+                    int producerId = (int) element[0];
+                    assertTrue(element[1] > lastSequences[producerId], "Elements of a producer out of order");
+                    lastSequences[producerId] = element[1];
+                    consumed.add(element);
+                }
+            }));
+        }
+        for (Future<?> consumerTask : consumerTasks)
+            consumerTask.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(producers * elementsPerProducer, consumed.size());
+        Set<Long> distinct = new HashSet<>();
+        for (long[] element : consumed)
+            distinct.add(element[0] * elementsPerProducer + element[1]);
+        assertEquals(producers * elementsPerProducer, distinct.size());
+    }
+}
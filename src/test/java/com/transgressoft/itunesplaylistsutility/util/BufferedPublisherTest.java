@@ -0,0 +1,165 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class BufferedPublisherTest {
+
+    private static final int CAPACITY = 8;
+
+    @Test
+    void dropsTheDroppableItemsOfAFullBuffer() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(Runnable::run, CAPACITY, item -> item % 2 == 0);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+
+        IntStream.range(0, 20).forEach(publisher::submit);
+        publisher.close(- 1);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        List<Integer> expected = IntStream.range(0, 20).filter(item -> item < CAPACITY || item % 2 != 0)
+                .boxed().collect(Collectors.toList());
+        expected.add(- 1);
+        assertEquals(expected, subscriber.items);
+        assertEquals(6, publisher.getDroppedItems());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    void capsTheItemsThatMustNotBeDroppedAtTwiceTheCapacity() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(Runnable::run, CAPACITY, item -> false);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+
+        IntStream.range(0, 100_000).forEach(publisher::submit);
+        publisher.close(- 1);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        List<Integer> expected = IntStream.range(0, 2 * CAPACITY).boxed().collect(Collectors.toList());
+        expected.add(- 1);
+        assertEquals(expected, subscriber.items);
+        assertEquals(100_000 - 2 * CAPACITY, publisher.getDroppedItems());
+    }
+
+    @Test
+    void deliversOnlyTheRequestedItems() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(Runnable::run, CAPACITY, item -> true);
+        RecordingSubscriber subscriber = new RecordingSubscriber(3);
+        publisher.subscribe(subscriber);
+
+        IntStream.range(0, 5).forEach(publisher::submit);
+        assertEquals(Arrays.asList(0, 1, 2), subscriber.items);
+        publisher.close(- 1);
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), subscriber.items);
+        assertFalse(subscriber.completed, "Completed before the last item was delivered");
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, - 1), subscriber.items);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    void deliversTheLastItemToLateSubscribers() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(Runnable::run, CAPACITY, item -> true);
+        publisher.submit(1);
+        publisher.close(2);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+
+        assertEquals(Collections.singletonList(2), subscriber.items);
+        assertTrue(subscriber.completed);
+        assertEquals(0, publisher.getNumberOfSubscribers());
+    }
+
+    @Test
+    void deliversEveryItemInOrderToASubscriberThatKeepsUp() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(executor, CAPACITY, item -> false);
+        RecordingSubscriber subscriber = new RecordingSubscriber(1) {
+            @Override
+            public void onNext(Integer item) {
+                super.onNext(item);
+                subscription.request(1);
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        for (int item = 0; item < 10_000; item++) {
+            publisher.submit(item);
+            while (item - subscriber.items.size() >= CAPACITY)
+                Thread.yield();
+        }
+        publisher.close(- 1);
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        List<Integer> expected = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+        expected.add(- 1);
+        assertEquals(expected, new ArrayList<>(subscriber.items));
+        assertEquals(0, publisher.getDroppedItems());
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Integer> {
+
+        private final long initialRequest;
+        private final List<Integer> items = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch done = new CountDownLatch(1);
+        Flow.Subscription subscription;
+        private volatile boolean completed;
+
+        private RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0)
+                subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+}
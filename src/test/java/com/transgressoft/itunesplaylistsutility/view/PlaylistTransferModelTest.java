@@ -0,0 +1,249 @@
+/*
+ * This file is part of ItunesPlaylistsUtility software.
+ *
+ * ItunesPlaylistsUtility software is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * ItunesPlaylistsUtility code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ItunesPlaylistsUtility. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2018 Octavio Calleya
+ */
+
+package com.transgressoft.itunesplaylistsutility.view;
+
+import com.worldsworstsoftware.itunes.*;
+import javafx.collections.*;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Octavio Calleya
+ */
+public class PlaylistTransferModelTest {
+
+    private static final Comparator<ItunesPlaylist> ORDER = Comparator.comparing(ItunesPlaylist::getName);
+
+    private final ItunesLibrary itunesLibrary = new ItunesLibrary();
+    private int playlistCount;
+
+    private PlaylistTransferModel transferModel;
+    private ViewMirror sourceMirror;
+    private ViewMirror targetMirror;
+
+    private List<ItunesPlaylist> expectedPlaylists;
+    private Set<ItunesPlaylist> expectedInTarget;
+
+    @BeforeEach
+    void beforeEach() {
+        transferModel = new PlaylistTransferModel(ORDER);
+        sourceMirror = new ViewMirror(transferModel.getSourcePlaylists());
+        targetMirror = new ViewMirror(transferModel.getTargetPlaylists());
+        expectedPlaylists = new ArrayList<>();
+        expectedInTarget = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    @Test
+    void leavesNewPlaylistsInTheSourceList() {
+        List<ItunesPlaylist> itunesPlaylists = Arrays.asList(playlist("b"), playlist("c"), playlist("a"));
+        transferModel.setPlaylists(itunesPlaylists);
+
+        assertEquals(Arrays.asList(itunesPlaylists.get(2), itunesPlaylists.get(0), itunesPlaylists.get(1)),
+                     new ArrayList<>(transferModel.getSourcePlaylists()));
+        assertTrue(transferModel.getTargetPlaylists().isEmpty());
+        assertTrue(transferModel.isInSource(itunesPlaylists.get(0)));
+        assertFalse(transferModel.isInTarget(itunesPlaylists.get(0)));
+    }
+
+    @Test
+    void firesNoChangeWhenNothingMoves() {
+        ItunesPlaylist playlist = playlist("a");
+        transferModel.setPlaylists(Collections.singletonList(playlist));
+        sourceMirror.changes = 0;
+
+        transferModel.moveToSource(Collections.singletonList(playlist));
+        transferModel.moveToTarget(Collections.singletonList(playlist("Not in the model")));
+
+        assertEquals(0, sourceMirror.changes);
+        assertEquals(0, targetMirror.changes);
+    }
+
+    @Test
+    void updatesOnlyTheAffectedEntries() {
+        List<ItunesPlaylist> initialPlaylists = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            initialPlaylists.add(playlist(String.format("%03d", i)));
+        transferModel.setPlaylists(initialPlaylists);
+        transferModel.moveToTarget(initialPlaylists.subList(50, 100));
+        sourceMirror.touchedEntries = 0;
+        targetMirror.touchedEntries = 0;
+
+        ItunesPlaylist renamedInPlace = playlist("020 renamed");
+        ItunesPlaylist renamedToTheEnd = playlist("999");
+        ItunesPlaylist added = playlist("030 added");
+        Map<ItunesPlaylist, ItunesPlaylist> changed = new IdentityHashMap<>();
+        changed.put(initialPlaylists.get(20), renamedInPlace);
+        changed.put(initialPlaylists.get(60), renamedToTheEnd);
+        transferModel.update(Collections.singletonList(initialPlaylists.get(10)), changed, Collections.singletonList(added));
+
+        assertEquals(50, transferModel.getSourcePlaylists().size());
+        assertEquals(50, transferModel.getTargetPlaylists().size());
+        assertEquals(renamedInPlace, transferModel.getSourcePlaylists().get(19));
+        assertEquals(added, transferModel.getSourcePlaylists().get(30));
+        assertEquals(renamedToTheEnd, transferModel.getTargetPlaylists().get(49));
+        assertTrue(transferModel.isInTarget(renamedToTheEnd));
+        assertEquals(4, sourceMirror.touchedEntries, "Removed and added entries of the source list");
+        assertEquals(2, targetMirror.touchedEntries, "Removed and added entries of the target list");
+        assertEquals(new ArrayList<>(transferModel.getSourcePlaylists()), sourceMirror.playlists);
+        assertEquals(new ArrayList<>(transferModel.getTargetPlaylists()), targetMirror.playlists);
+    }
+
+    @Test
+    void keepsTheOrderOfANaiveModelOnRandomOperations() {
+        Random random = new Random(34);
+        List<ItunesPlaylist> initialPlaylists = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            initialPlaylists.add(randomPlaylist(random));
+        transferModel.setPlaylists(initialPlaylists);
+        expectedPlaylists.addAll(initialPlaylists);
+        assertModel();
+
+        for (int operation = 0; operation < 2000; operation++) {
+            int kind = random.nextInt(10);
+            if (kind < 4)
+                move(randomSelection(random), true);
+            else if (kind < 8)
+                move(randomSelection(random), false);
+            else if (kind < 9)
+                randomUpdate(random);
+            else
+                move(Collections.singletonList(randomPlaylist(random)), random.nextBoolean());
+            assertModel();
+        }
+    }
+
+    private void move(List<ItunesPlaylist> selection, boolean toTarget) {
+        boolean moves = selection.stream().anyMatch(playlist -> expectedPlaylists.contains(playlist)
+                && expectedInTarget.contains(playlist) != toTarget);
+        sourceMirror.changes = 0;
+        targetMirror.changes = 0;
+        if (toTarget) {
+            transferModel.moveToTarget(selection);
+            selection.stream().filter(expectedPlaylists::contains).forEach(expectedInTarget::add);
+        }
+        else {
+            transferModel.moveToSource(selection);
+            selection.forEach(expectedInTarget::remove);
+        }
+        assertEquals(moves ? 1 : 0, sourceMirror.changes, "Changes of the source list");
+        assertEquals(moves ? 1 : 0, targetMirror.changes, "Changes of the target list");
+    }
+
+    private void randomUpdate(Random random) {
+        List<ItunesPlaylist> removed = randomSelection(random);
+        Map<ItunesPlaylist, ItunesPlaylist> changed = new IdentityHashMap<>();
+        for (ItunesPlaylist playlist : randomSelection(random))
+            if (! removed.contains(playlist))
+                changed.put(playlist, randomPlaylist(random));
+        List<ItunesPlaylist> added = new ArrayList<>();
+        for (int i = random.nextInt(10); i > 0; i--)
+            added.add(randomPlaylist(random));
+
+        sourceMirror.changes = 0;
+        targetMirror.changes = 0;
+        sourceMirror.touchedEntries = 0;
+        targetMirror.touchedEntries = 0;
+        transferModel.update(removed, changed, added);
+        assertTrue(sourceMirror.changes <= 1 && targetMirror.changes <= 1, "More than one change event");
+        int affectedEntries = removed.size() + 2 * changed.size() + added.size();
+        assertTrue(sourceMirror.touchedEntries + targetMirror.touchedEntries <= affectedEntries,
+                   "Entries not affected by the update changed");
+
+        expectedPlaylists.removeAll(removed);
+        expectedInTarget.removeAll(removed);
+        expectedPlaylists.replaceAll(playlist -> changed.getOrDefault(playlist, playlist));
+        changed.forEach((previous, playlist) -> {
+            if (expectedInTarget.remove(previous))
+                expectedInTarget.add(playlist);
+        });
+        expectedPlaylists.addAll(added);
+    }
+
+    private void assertModel() {
+        List<ItunesPlaylist> sortedPlaylists = new ArrayList<>(expectedPlaylists);
+        sortedPlaylists.sort(ORDER);
+        List<ItunesPlaylist> expectedSource = sortedPlaylists.stream()
+                .filter(playlist -> ! expectedInTarget.contains(playlist))
+                .collect(Collectors.toList());
+        List<ItunesPlaylist> expectedTarget = sortedPlaylists.stream()
+                .filter(expectedInTarget::contains)
+                .collect(Collectors.toList());
+
+        assertEquals(expectedSource, new ArrayList<>(transferModel.getSourcePlaylists()));
+        assertEquals(expectedTarget, new ArrayList<>(transferModel.getTargetPlaylists()));
+        assertEquals(expectedSource, sourceMirror.playlists, "Source list rebuilt from its changes");
+        assertEquals(expectedTarget, targetMirror.playlists, "Target list rebuilt from its changes");
+        for (int index = 0; index < expectedSource.size(); index++) {
+            ItunesPlaylist playlist = expectedSource.get(index);
+            assertEquals(index, transferModel.getSourcePlaylists().indexOf(playlist));
+            assertEquals(- 1, transferModel.getTargetPlaylists().indexOf(playlist));
+            assertTrue(transferModel.isInSource(playlist));
+            assertFalse(transferModel.isInTarget(playlist));
+        }
+        for (int index = 0; index < expectedTarget.size(); index++) {
+            ItunesPlaylist playlist = expectedTarget.get(index);
+            assertEquals(index, transferModel.getTargetPlaylists().indexOf(playlist));
+            assertTrue(transferModel.isInTarget(playlist));
+        }
+    }
+
+    private List<ItunesPlaylist> randomSelection(Random random) {
+        List<ItunesPlaylist> selection = new ArrayList<>();
+        if (! expectedPlaylists.isEmpty())
+            for (int i = random.nextInt(8); i > 0; i--)
+                selection.add(expectedPlaylists.get(random.nextInt(expectedPlaylists.size())));
+        return selection;
+    }
+
+    private ItunesPlaylist randomPlaylist(Random random) {
+        return playlist(String.format("%c%c %d", 'a' + random.nextInt(26), 'a' + random.nextInt(26), playlistCount++));
+    }
+
+    private ItunesPlaylist playlist(String name) {
+        ItunesPlaylist playlist = new ItunesPlaylist(itunesLibrary);
+        playlist.setName(name);
+        return playlist;
+    }
+
+    /**
+     * Copy of a view kept up to date only with its change events, as a list view does
+     */
+    private static class ViewMirror {
+
+        private final List<ItunesPlaylist> playlists = new ArrayList<>();
+        private int changes;
+        private int touchedEntries;
+
+        private ViewMirror(ObservableList<ItunesPlaylist> view) {
+            view.addListener((ListChangeListener<ItunesPlaylist>) change -> {
+                changes++;
+                while (change.next()) {
+                    touchedEntries += change.getRemovedSize() + change.getAddedSize();
+                    playlists.subList(change.getFrom(), change.getFrom() + change.getRemovedSize()).clear();
+                    playlists.addAll(change.getFrom(), change.getAddedSubList());
+                }
+            });
+        }
+    }
+}